@@ -0,0 +1,72 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import server.model.BenchData;
+
+/**
+ * The whole checkout over HTTP: an in-process HttpServer running the real
+ * CheckoutHandler, a logged-in session with a 3-line cart, and a POST to
+ * /api/place-order that returns once the order, stock and history writes are
+ * durable. Writes its data files in the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckoutBenchmark {
+    private static final String FORM = "name=Bench+Customer&phone=0123456789&address=No.+1%2C+Jalan+Bench&paymentMethod=COD";
+
+    @Param({"10", "1000"})
+    public int skus;
+
+    private HttpServer server;
+    private HttpClient client;
+    private HttpRequest request;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchData.writeProducts(skus, 1_000_000_000);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/place-order", new CheckoutHandler());
+        server.setExecutor(RequestExecutors.createRequestExecutor());
+        server.start();
+
+        session = SessionStore.create("bench");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/api/place-order"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Cookie", "AUTH_SESSION=" + session.getId())
+                .POST(HttpRequest.BodyPublishers.ofString(FORM))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public int placeOrder() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            int s = (i * 7919) % skus;
+            session.getCart().addItem(BenchData.sku(s), "Cookie " + s, BenchData.priceCents(s), 1);
+        }
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 302) {
+            throw new IllegalStateException("Checkout failed with HTTP " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,37 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Request parsing: a checkout form body and a browser's cookie header. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormParseBenchmark {
+    private static final String CHECKOUT_PLAIN =
+            "name=Nurul&phone=0123456789&address=USM&paymentMethod=CC&cc_number=4111111111111111&cc_expiry=06/28";
+    private static final String CHECKOUT_ENCODED =
+            "name=Nurul+Shafina&phone=012-345+6789&address=No.+12%2C+Jalan+Sungai+Dua%2C+11800+Gelugor"
+                    + "&paymentMethod=CC&cc_number=4111+1111+1111+1111&cc_expiry=06%2F28";
+    private static final String COOKIES =
+            "_ga=GA1.1.1234567890.1700000000; AUTH_SESSION=3f2a9c1e-6b1d-4c8e-9a7f-2d5e8b1c0a4f; theme=dark; ADMIN_SESSION=true";
+
+    @Benchmark
+    public Map<String, String> parseCheckoutPlain() {
+        return MainServer.parse(CHECKOUT_PLAIN);
+    }
+
+    @Benchmark
+    public Map<String, String> parseCheckoutEncoded() {
+        return MainServer.parse(CHECKOUT_ENCODED);
+    }
+
+    @Benchmark
+    public Map<String, String> parseCookies() {
+        return RequestContext.parseCookies(COOKIES);
+    }
+}
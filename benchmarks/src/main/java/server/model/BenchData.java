@@ -0,0 +1,106 @@
+package server.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures shared by the benchmarks. Everything is generated from a fixed
+ * seed so runs are comparable.
+ *
+ * ProductDatabase and OrderDatabase read and write files relative to the
+ * working directory, so benchmarks that use them must run somewhere
+ * disposable; exec:exec in benchmarks/pom.xml uses target/bench-work.
+ */
+public final class BenchData {
+    public static final long SEED = 42;
+
+    private BenchData() {
+    }
+
+    public static String sku(int i) {
+        return String.format("SKU%05d", i);
+    }
+
+    public static long priceCents(int sku) {
+        return 300 + (sku % 50) * 25;
+    }
+
+    /** Refuses to run in the repository root, where products.txt and friends are real data. */
+    public static void requireScratchDir() {
+        if (new File("web").isDirectory() || new File("src/server").isDirectory()) {
+            throw new IllegalStateException("Run this benchmark from a scratch directory, not "
+                    + new File(".").getAbsolutePath() + " (see benchmarks/pom.xml)");
+        }
+    }
+
+    /** Writes products.txt with the given number of SKUs; call before ProductDatabase is first used. */
+    public static void writeProducts(int skus, int stock) {
+        requireScratchDir();
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream("products.txt"), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < skus; i++) {
+                out.println(sku(i) + "|Cookie " + i + "|" + Money.format(priceCents(i)) + "|" + stock
+                        + "|A cookie.|Flour, Sugar, Butter|Wheat (Gluten), Dairy|0");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static List<CartItem> cartItems(Random random, int skus, int lines) {
+        List<CartItem> items = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            int s = random.nextInt(skus);
+            items.add(new CartItem(sku(s), "Cookie " + s, priceCents(s), 1 + random.nextInt(3)));
+        }
+        return items;
+    }
+
+    /** A typical order: 1-4 lines, realistic-length customer fields. */
+    public static OrderWithStatus order(long id, Random random) {
+        List<CartItem> items = cartItems(random, 100, 1 + random.nextInt(4));
+        long total = 0;
+        for (CartItem item : items) total += item.getSubtotalCents();
+        boolean card = random.nextBoolean();
+        return new OrderWithStatus(id, "Customer " + (id % 5000), "01" + (10_000_000 + id % 89_999_999),
+                "No. " + (id % 200) + ", Jalan Sungai Dua, 11800 Gelugor, Pulau Pinang",
+                card ? "CC" : "COD", card ? "4111111111111111" : "N/A", card ? "06/28" : "N/A",
+                items, total, "Pending", Instant.ofEpochMilli(1_700_000_000_000L + id * 60_000L));
+    }
+
+    /** Fills an order store with ids 1..count, in batches so 1M orders never sit on the heap at once. */
+    static void fill(OrderStore store, int count) throws IOException {
+        Random random = new Random(SEED);
+        List<Order> batch = new ArrayList<>(10_000);
+        for (long id = 1; id <= count; id++) {
+            batch.add(order(id, random));
+            if (batch.size() == 10_000) {
+                store.importAll(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) store.importAll(batch);
+    }
+
+    public static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package server.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Order persistence at 1k, 100k and 1M orders: durable append (what
+ * saveOrders used to do), random lookup, a full scan, and reopening the
+ * store (what loadOrders used to do at startup).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class OrderStoreBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int orders;
+
+    private Path dir;
+    private OrderStore store;
+    private long nextId;
+    private final Random random = new Random(BenchData.SEED);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("orders-bench");
+        store = new OrderStore(dir.toFile(), GroupCommitWriter.shared());
+        BenchData.fill(store, orders);
+        nextId = orders + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchData.deleteTree(dir);
+    }
+
+    /** One checkout's order write, waiting for the fsync like CheckoutHandler does. */
+    @Benchmark
+    public void appendDurable() {
+        store.put(BenchData.order(nextId++, random)).join();
+    }
+
+    @Benchmark
+    public Order getRandom() {
+        return store.get(1 + ThreadLocalRandom.current().nextInt(orders));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void scanAll(Blackhole bh) {
+        store.forEach(bh::consume);
+    }
+
+    /** Startup cost: load the sealed indexes and recover the active segment. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int reopen() throws IOException {
+        OrderStore reopened = new OrderStore(new File(dir.toString()), GroupCommitWriter.shared());
+        int size = reopened.size();
+        reopened.close();
+        return size;
+    }
+}
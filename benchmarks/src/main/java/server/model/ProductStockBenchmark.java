@@ -0,0 +1,52 @@
+package server.model;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Stock updates with 10 and 1k SKUs in the catalog. Writes products.txt and
+ * products.journal in the working directory (see {@link BenchData}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductStockBenchmark {
+    @Param({"10", "1000"})
+    public int skus;
+
+    private List<CartItem> cart;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Enough stock that a run never sells out
+        BenchData.writeProducts(skus, 1_000_000_000);
+        cart = BenchData.cartItems(new Random(BenchData.SEED), skus, 3);
+        ProductDatabase.getProductById(BenchData.sku(0));
+    }
+
+    /** Checkout's all-or-nothing hold on a 3-line cart, without the journal write. */
+    @Benchmark
+    public boolean reserveAndRelease() {
+        Reservation r = ProductDatabase.reserve(cart);
+        ProductDatabase.release(r);
+        return r.isOk();
+    }
+
+    /** reduceStock including the durable journal append. */
+    @Benchmark
+    public void reduceStockDurable() {
+        ProductDatabase.reduceStock(BenchData.sku(ThreadLocalRandom.current().nextInt(skus)), 1).join();
+    }
+
+    /** A full checkout's stock update: reserve, then commit to the journal. */
+    @Benchmark
+    public void reserveAndCommit() {
+        ProductDatabase.commit(ProductDatabase.reserve(cart)).join();
+    }
+}
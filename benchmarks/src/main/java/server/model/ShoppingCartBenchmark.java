@@ -0,0 +1,54 @@
+package server.model;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Cart operations with 10 and 1k distinct SKUs in the cart. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartBenchmark {
+    @Param({"10", "1000"})
+    public int skus;
+
+    private ShoppingCart cart;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cart = new ShoppingCart();
+        for (int i = 0; i < skus; i++) {
+            cart.addItem(BenchData.sku(i), "Cookie " + i, BenchData.priceCents(i), 1);
+        }
+    }
+
+    /** What calculateTotal used to compute by walking every line. */
+    @Benchmark
+    public long total() {
+        return cart.getTotalCents();
+    }
+
+    @Benchmark
+    public int addExisting() {
+        int i = ThreadLocalRandom.current().nextInt(skus);
+        cart.addItem(BenchData.sku(i), "Cookie " + i, BenchData.priceCents(i), 1);
+        return cart.getItemCount();
+    }
+
+    @Benchmark
+    public void removeAndAdd() {
+        int i = ThreadLocalRandom.current().nextInt(skus);
+        cart.removeItem(BenchData.sku(i));
+        cart.addItem(BenchData.sku(i), "Cookie " + i, BenchData.priceCents(i), 1);
+    }
+
+    /** The copy checkout and the cart page take. */
+    @Benchmark
+    public List<CartItem> snapshot() {
+        return cart.getItems();
+    }
+}
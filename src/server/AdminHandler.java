@@ -3,212 +3,278 @@ package server;
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 import server.model.*;
 
-public class AdminHandler implements HttpHandler {
-
+public class AdminHandler {
     private static final String ADMIN_USER = "admin";
     private static final String ADMIN_PASS = "1234";
+    private static final Pattern VALID_STATUS = Pattern.compile("[A-Za-z][A-Za-z ]{0,31}");
 
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        String path = exchange.getRequestURI().getPath();
+    private static volatile HtmlTemplate dashboardTemplate;
+    private static volatile byte[] dashboardSource;
 
-        try {
-            if (path.equals("/admin")) {
-                serveLoginPage(exchange);
-            } else if (path.equals("/admin/dashboard")) {
-                if (!checkAuth(exchange)) return;
-                serveDashboard(exchange);
-            } else if (path.startsWith("/admin/products")) {
-                if (!checkAuth(exchange)) return;
-                serveProducts(exchange);
-            } else if (path.equals("/admin/orders") || path.equals("/admin/orders/api")) {
-                if (!checkAuth(exchange)) return;
-                serveOrders(exchange);
-            } else if (path.equals("/admin/reports") || path.equals("/admin/reports/api")) {
-                if (!checkAuth(exchange)) return;
-                serveReports(exchange);
-            } else if (path.equals("/admin/logout")) {
-                handleLogout(exchange);
-            } else {
-                exchange.sendResponseHeaders(404, -1);
-                exchange.close();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            String err = "Internal Server Error: " + e.getMessage();
-            exchange.sendResponseHeaders(500, err.length());
-            exchange.getResponseBody().write(err.getBytes());
-            exchange.close();
-        }
-    }
-
-    private void serveLoginPage(HttpExchange exchange) throws IOException {
-        if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-            byte[] htmlData = MainServer.readFile("web/admin_login.html");
-            sendResponse(exchange, 200, "text/html", htmlData);
-        } else if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, String> data = MainServer.parse(body);
-
-            if (ADMIN_USER.equals(data.get("username")) && ADMIN_PASS.equals(data.get("password"))) {
-                exchange.getResponseHeaders().add("Set-Cookie", "ADMIN_SESSION=true; Path=/; HttpOnly");
-                sendJSON(exchange, true, "Login successful");
-            } else {
-                sendJSON(exchange, false, "Invalid credentials");
-            }
-        }
+    /** Runs the handler only for a logged-in admin; anyone else is sent to the login page. */
+    static HttpHandler adminOnly(HttpHandler handler) {
+        return ex -> {
+            if (checkAuth(ex)) handler.handle(ex);
+        };
     }
 
-    private void serveDashboard(HttpExchange exchange) throws IOException {
-        byte[] htmlData = MainServer.readFile("web/admin_dashboard.html");
-        List<Order> allOrders = OrderDatabase.getAllOrders();
+    /** One of the static admin pages under web/. */
+    static HttpHandler page(String file) {
+        return ex -> sendResponse(ex, 200, "text/html", MainServer.readFile(file));
+    }
 
-        long todayCount = allOrders.stream()
-                .filter(o -> isToday(o.getOrderDate()))
-                .count();
+    void loginPage(HttpExchange exchange) throws IOException {
+        byte[] htmlData = MainServer.readFile("web/admin_login.html");
+        sendResponse(exchange, 200, "text/html", htmlData);
+    }
 
-        double totalSales = allOrders.stream().mapToDouble(Order::getTotal).sum();
+    void login(HttpExchange exchange) throws IOException {
+        Map<String, String> data = RequestContext.of(exchange).formParams();
 
-        String lowStockNames = ProductDatabase.getAllProducts().stream()
-                .filter(p -> p.getStock() < 10)
-                .map(Product::getName)
-                .collect(Collectors.joining(", "));
+        if (ADMIN_USER.equals(data.get("username")) && ADMIN_PASS.equals(data.get("password"))) {
+            exchange.getResponseHeaders().add("Set-Cookie", "ADMIN_SESSION=true; Path=/; HttpOnly");
+            sendJSON(exchange, true, "Login successful");
+        } else {
+            sendJSON(exchange, false, "Invalid credentials");
+        }
+    }
 
-        if (lowStockNames.isEmpty()) lowStockNames = "All stocks healthy";
+    void dashboard(HttpExchange exchange) throws IOException {
+        List<String> lowStock = DashboardMetrics.getLowStockNames();
 
-        String htmlStr = new String(htmlData, StandardCharsets.UTF_8)
-                .replace("{{TOTAL_SALES}}", String.format("%.2f", totalSales))
-                .replace("{{TODAY_ORDERS}}", String.valueOf(todayCount))
-                .replace("{{LOW_STOCK}}", lowStockNames);
+        Map<String, String> values = new HashMap<>();
+        values.put("TOTAL_SALES", Money.format(DashboardMetrics.getTotalSalesCents()));
+        values.put("TODAY_ORDERS", String.valueOf(DashboardMetrics.getTodayOrders()));
+        values.put("LOW_STOCK", lowStock.isEmpty() ? "All stocks healthy" : String.join(", ", lowStock));
 
-        sendResponse(exchange, 200, "text/html", htmlStr.getBytes(StandardCharsets.UTF_8));
+        sendResponse(exchange, 200, "text/html", dashboardTemplate().render(values));
     }
 
-    private boolean isToday(Date date) {
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd");
-        return fmt.format(date).equals(fmt.format(new Date()));
+    private static HtmlTemplate dashboardTemplate() throws IOException {
+        byte[] source = MainServer.readFile("web/admin_dashboard.html");
+        HtmlTemplate cached = dashboardTemplate;
+        // Re-parse only when the cached page itself has been reloaded
+        if (cached == null || dashboardSource != source) {
+            cached = new HtmlTemplate(source);
+            dashboardTemplate = cached;
+            dashboardSource = source;
+        }
+        return cached;
     }
 
-    private void serveProducts(HttpExchange ex) throws IOException {
-        String path = ex.getRequestURI().getPath();
-
-        if (path.equals("/admin/products/api")) {
-            List<Product> list = ProductDatabase.getAllProducts();
-            String json = "[" + list.stream().map(p ->
-                    String.format("{\"id\":\"%s\",\"name\":\"%s\",\"price\":%.2f,\"stock\":%d,\"description\":\"%s\",\"ingredients\":\"%s\",\"allergens\":\"%s\"}",
-                            escapeJson(p.getId()),
-                            escapeJson(p.getName()),
-                            p.getPrice(),
-                            p.getStock(),
-                            escapeJson(p.getDescription()),
-                            escapeJson(p.getIngredients()),
-                            escapeJson(p.getAllergens()))
-            ).collect(Collectors.joining(",")) + "]";
-            sendResponse(ex, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    void productsApi(HttpExchange ex) throws IOException {
+        CatalogSnapshot catalog = ProductDatabase.getCatalogSnapshot();
+        ex.getResponseHeaders().set("ETag", catalog.getEtag());
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        String ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (catalog.getEtag().equals(ifNoneMatch)) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
             return;
         }
+        sendResponse(ex, 200, "application/json", catalog.getJson());
+    }
 
-        if (ex.getRequestMethod().equalsIgnoreCase("POST")) {
-            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, String> data = MainServer.parse(body);
-            String action = data.get("action");
-
-            if ("add".equals(action)) {
-                Product p = new Product(data.get("productId"), data.get("name"),
-                        Double.parseDouble(data.get("price")), Integer.parseInt(data.get("stock")),
-                        data.get("description"), data.get("ingredients"), data.get("allergens"));
-                ProductDatabase.addProduct(p);
-                sendJSON(ex, true, "Added");
-            } else if ("delete".equals(action)) {
-                ProductDatabase.deleteProduct(data.get("productId"));
-                sendJSON(ex, true, "Deleted");
-            }
+    void updateProducts(HttpExchange ex) throws IOException {
+        Map<String, String> data = RequestContext.of(ex).formParams();
+        String action = data.get("action");
+
+        long start = System.nanoTime();
+        if ("add".equals(action)) {
+            Product p = new Product(data.get("productId"), data.get("name"),
+                    Money.parse(data.get("price")), Integer.parseInt(data.get("stock")),
+                    data.get("description"), data.get("ingredients"), data.get("allergens"));
+            ProductDatabase.addProduct(p).join();
+            RequestContext.of(ex).time("catalog", start);
+            sendJSON(ex, true, "Added");
+        } else if ("delete".equals(action)) {
+            ProductDatabase.deleteProduct(data.get("productId")).join();
+            RequestContext.of(ex).time("catalog", start);
+            sendJSON(ex, true, "Deleted");
         } else {
-            byte[] htmlData = MainServer.readFile("web/admin_products.html");
-            sendResponse(ex, 200, "text/html", htmlData);
+            sendJSON(ex, false, "Unknown action");
         }
     }
 
-    private void serveOrders(HttpExchange exchange) throws IOException {
-        if (exchange.getRequestURI().getPath().endsWith("/api")) {
-            List<Order> orders = OrderDatabase.getAllOrders();
-            // Simple JSON generation for orders
-            String json = "[" + orders.stream().map(o ->
-                    String.format("{\"orderId\":%d,\"customerName\":\"%s\",\"total\":%.2f,\"status\":\"%s\"}",
-                            o.getOrderId(), escapeJson(o.getCustomerName()), o.getTotal(), o.getStatus())
-            ).collect(Collectors.joining(",")) + "]";
-            sendResponse(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
-        } else {
-            byte[] htmlData = MainServer.readFile("web/admin_orders.html");
-            sendResponse(exchange, 200, "text/html", htmlData);
+    /**
+     * GET /admin/orders/api?limit=&cursor=&sort=date|total&order=desc|asc&status=&customer=&from=&to=
+     * Dates are yyyy-MM-dd and both ends are inclusive. The next page's cursor is
+     * returned in X-Next-Cursor.
+     */
+    void ordersApi(HttpExchange exchange) throws IOException {
+        OrderIndex.Query query;
+        try {
+            query = parseOrderQuery(RequestContext.of(exchange).queryParams());
+        } catch (RuntimeException e) {
+            sendResponse(exchange, 400, "text/plain", ("Bad query: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        long start = System.nanoTime();
+        OrderIndex.Page page = OrderIndex.find(query);
+        RequestContext.of(exchange).time("query", start);
+        if (page.getNextCursor() != null) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", page.getNextCursor());
+        }
+        try (JsonWriter w = JsonWriter.respond(exchange, 200)) {
+            w.beginArray();
+            for (Order o : page.getOrders()) {
+                w.beginObject()
+                        .field("orderId", o.getOrderId())
+                        .field("customerName", o.getCustomerName())
+                        .field("phone", o.getPhone())
+                        .name("total").money(o.getTotalCents())
+                        .field("status", o.getStatus())
+                        .field("date", o.getOrderDate().toEpochMilli())
+                        .endObject();
+            }
+            w.endArray();
         }
     }
 
-    private void serveReports(HttpExchange exchange) throws IOException {
-        if (exchange.getRequestURI().getPath().endsWith("/api")) {
-            List<Order> orders = OrderDatabase.getAllOrders();
-            Map<String, Double> monthlySales = new TreeMap<>();
-            Map<String, Integer> productSales = new HashMap<>();
-            SimpleDateFormat sdf = new SimpleDateFormat("MMM yyyy");
+    /** POST /admin/orders/{id}/status with a status form field; answers once the change is durable. */
+    void updateOrderStatus(HttpExchange exchange) throws IOException {
+        RequestContext ctx = RequestContext.of(exchange);
+        long orderId;
+        try {
+            orderId = Long.parseLong(ctx.pathParam("id"));
+        } catch (NumberFormatException e) {
+            sendResponse(exchange, 400, "text/plain", "Bad order id".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String status = ctx.form("status");
+        if (status == null || !VALID_STATUS.matcher(status).matches()) {
+            sendResponse(exchange, 400, "text/plain", "Bad status".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (OrderDatabase.getOrder(orderId) == null) {
+            sendResponse(exchange, 404, "text/plain", "No such order".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        long start = System.nanoTime();
+        OrderDatabase.updateOrderStatus(orderId, status).join();
+        ctx.time("order", start);
+        sendJSON(exchange, true, "Updated");
+    }
+
+    /** All orders in the old final_orders.txt layout, streamed chunked. */
+    void exportOrders(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"final_orders.txt\"");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            OrderDatabase.exportText(out);
+        }
+    }
+
+    private OrderIndex.Query parseOrderQuery(Map<String, String> params) {
+        OrderIndex.Query q = new OrderIndex.Query();
+        if (params.containsKey("limit")) q.limit = Math.max(1, Math.min(500, Integer.parseInt(params.get("limit"))));
+        q.cursor = params.get("cursor");
+        OrderIndex.checkCursor(q.cursor);
+        if ("total".equalsIgnoreCase(params.get("sort"))) q.sort = OrderIndex.Sort.TOTAL;
+        q.descending = !"asc".equalsIgnoreCase(params.get("order"));
+        q.status = emptyToNull(params.get("status"));
+        q.customer = emptyToNull(params.get("customer"));
+        ZoneId zone = ZoneId.systemDefault();
+        if (emptyToNull(params.get("from")) != null) {
+            q.fromMillis = LocalDate.parse(params.get("from")).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        if (emptyToNull(params.get("to")) != null) {
+            q.toMillis = LocalDate.parse(params.get("to")).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        return q;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    void reportsApi(HttpExchange exchange) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(exchange, 200)) {
+            w.beginObject();
+            writeMoneyMap(w.name("monthlySales"), SalesAggregates.getMonthlySales());
+            writeCountMap(w.name("productSales"), SalesAggregates.getProductUnits());
+            writeMoneyMap(w.name("productRevenue"), SalesAggregates.getProductRevenue());
+            writeCountMap(w.name("statusCounts"), SalesAggregates.getStatusCounts());
+            w.endObject();
+        }
+    }
 
-            for (Order o : orders) {
-                String month = sdf.format(o.getOrderDate());
-                monthlySales.put(month, monthlySales.getOrDefault(month, 0.0) + o.getTotal());
-                for (CartItem item : o.getItems()) {
-                    productSales.put(item.getProductName(), productSales.getOrDefault(item.getProductName(), 0) + item.getQuantity());
-                }
+    void stats(HttpExchange exchange) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(exchange, 200)) {
+            w.beginObject().name("executors").beginArray();
+            for (MeteredExecutor executor : RequestExecutors.all()) {
+                executor.writeJson(w);
             }
+            w.endArray();
+            PasswordHasher.writeStats(w.name("hashing"));
+            SessionStore.writeStats(w.name("sessions"));
+            w.endObject();
+        }
+    }
 
-            String json = String.format("{\"monthlySales\":%s,\"productSales\":%s}",
-                    mapToJson(monthlySales), mapToJson(productSales));
-            sendResponse(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
-        } else {
-            byte[] htmlData = MainServer.readFile("web/admin_reports.html");
-            sendResponse(exchange, 200, "text/html", htmlData);
+    /** The slow request log, see {@link SlowRequests}. */
+    void slowRequestsApi(HttpExchange exchange) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(exchange, 200)) {
+            SlowRequests.writeJson(w);
         }
     }
 
-    private String mapToJson(Map<String, ?> map) {
-        return "{" + map.entrySet().stream()
-                .map(e -> "\"" + e.getKey() + "\":" + (e.getValue() instanceof String ? "\"" + e.getValue() + "\"" : e.getValue()))
-                .collect(Collectors.joining(",")) + "}";
+    /** Prometheus text exposition format, see {@link Metrics}. */
+    void metrics(HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        Metrics.writePrometheus(out);
+        sendResponse(exchange, 200, "text/plain; version=0.0.4", out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeCountMap(JsonWriter w, Map<String, Long> map) throws IOException {
+        w.beginObject();
+        for (Map.Entry<String, Long> e : map.entrySet()) {
+            w.field(e.getKey(), e.getValue());
+        }
+        w.endObject();
     }
 
-    private void handleLogout(HttpExchange exchange) throws IOException {
+    /** Values are sen and come out as decimal ringgit. */
+    private static void writeMoneyMap(JsonWriter w, Map<String, Long> map) throws IOException {
+        w.beginObject();
+        for (Map.Entry<String, Long> e : map.entrySet()) {
+            w.name(e.getKey()).money(e.getValue());
+        }
+        w.endObject();
+    }
+
+    void logout(HttpExchange exchange) throws IOException {
         exchange.getResponseHeaders().add("Set-Cookie", "ADMIN_SESSION=; Path=/; Max-Age=0; HttpOnly");
         exchange.getResponseHeaders().add("Location", "/admin");
         exchange.sendResponseHeaders(302, -1);
         exchange.close();
     }
 
-    private boolean checkAuth(HttpExchange ex) throws IOException {
-        String cookie = ex.getRequestHeaders().getFirst("Cookie");
-        if (cookie != null && cookie.contains("ADMIN_SESSION=true")) return true;
+    private static boolean checkAuth(HttpExchange ex) throws IOException {
+        if ("true".equals(RequestContext.of(ex).cookie("ADMIN_SESSION"))) return true;
         ex.getResponseHeaders().add("Location", "/admin");
         ex.sendResponseHeaders(302, -1);
         ex.close();
         return false;
     }
 
-    private void sendJSON(HttpExchange ex, boolean success, String msg) throws IOException {
-        String json = String.format("{\"success\":%b,\"message\":\"%s\"}", success, escapeJson(msg));
-        sendResponse(ex, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    private static void sendJSON(HttpExchange ex, boolean success, String msg) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+            w.beginObject().field("success", success).field("message", msg).endObject();
+        }
     }
 
-    private void sendResponse(HttpExchange ex, int code, String type, byte[] content) throws IOException {
+    private static void sendResponse(HttpExchange ex, int code, String type, byte[] content) throws IOException {
         ex.getResponseHeaders().add("Content-Type", type + "; charset=UTF-8");
         ex.sendResponseHeaders(code, content.length);
         ex.getResponseBody().write(content);
         ex.close();
     }
-
-    private String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\"", "\\\"");
-    }
 }
\ No newline at end of file
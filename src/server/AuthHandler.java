@@ -3,15 +3,17 @@ package server;
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.concurrent.*;
+import server.model.Log;
 import server.model.User;
+import server.model.UserOrderIndex;
 
-public class AuthHandler implements HttpHandler {
+public class AuthHandler {
+    private static final Log LOG = Log.get(AuthHandler.class);
     private static final Map<String, User> userDatabase = new ConcurrentHashMap<>();
-    public static final Map<String, String> activeSessions = new ConcurrentHashMap<>();
     private static final String USER_FILE = "users.txt";
     private static final String ORDER_FILE = "orderdata.txt";
+    private static final long HASH_TIMEOUT_SEC = 10;
 
     public AuthHandler() {
         // Automatically creates files if they don't exist
@@ -26,105 +28,150 @@ public class AuthHandler implements HttpHandler {
             if (!file.exists()) {
                 file.createNewFile();
             }
-        } catch (IOException e) { e.printStackTrace(); }
+        } catch (IOException e) {
+            LOG.error("Cannot create file", e, "file", fileName);
+        }
     }
 
-    @Override
-    public void handle(HttpExchange ex) throws IOException {
-        String path = ex.getRequestURI().getPath();
-
-        // Ignore static files
-        if (path.equals("/") || path.endsWith(".html") || path.endsWith(".css") || path.endsWith(".png") || path.endsWith(".jpg")) {
-            return;
+    void register(HttpExchange ex) throws IOException {
+        RequestContext ctx = RequestContext.of(ex);
+        Map<String, String> data = ctx.formParams();
+        String username = data.get("username");
+        try {
+            long start = System.nanoTime();
+            String hashed = await(PasswordHasher.hash(data.get("password"), ctx.clientIp(), username));
+            ctx.time("bcrypt", start);
+            User newUser = new User(username, data.get("email"), hashed);
+            start = System.nanoTime();
+            userDatabase.put(username, newUser);
+            saveUserToFile(newUser);
+            ctx.time("users", start);
+            sendRedirect(ex, "/login.html");
+        } catch (PasswordHasher.TooBusyException e) {
+            sendTooBusy(ex);
         }
+    }
 
-        if ("POST".equalsIgnoreCase(ex.getRequestMethod())) {
-            InputStreamReader isr = new InputStreamReader(ex.getRequestBody(), "utf-8");
-            BufferedReader br = new BufferedReader(isr);
-            Map<String, String> data = MainServer.parse(br.readLine());
-
-            if (path.contains("/api/register")) {
-                String username = data.get("username");
-                String hashed = BCrypt.hashpw(data.get("password"), BCrypt.gensalt());
-                User newUser = new User(username, data.get("email"), hashed);
-                userDatabase.put(username, newUser);
-                saveUserToFile(newUser);
-                sendRedirect(ex, "/login.html");
-            }
-            else if (path.contains("/api/login")) {
-                User user = userDatabase.get(data.get("username"));
-                if (user != null && BCrypt.checkpw(data.get("password"), user.getPassword())) {
-                    String sessionId = UUID.randomUUID().toString();
-                    activeSessions.put(sessionId, user.getUsername());
-                    // Set secure cookie for session tracking
-                    ex.getResponseHeaders().add("Set-Cookie", "AUTH_SESSION=" + sessionId + "; Path=/; HttpOnly");
-                    sendJsonResponse(ex, "{\"success\": true}");
-                } else {
-                    ex.sendResponseHeaders(401, -1);
+    void login(HttpExchange ex) throws IOException {
+        RequestContext ctx = RequestContext.of(ex);
+        Map<String, String> data = ctx.formParams();
+        String ip = ctx.clientIp();
+        try {
+            User user = userDatabase.get(data.get("username"));
+            String password = data.get("password");
+            long start = System.nanoTime();
+            boolean ok = user != null && await(PasswordHasher.check(password, user.getPassword(), ip, user.getUsername()));
+            ctx.time("bcrypt", start);
+            if (ok) {
+                if (PasswordHasher.needsRehash(user.getPassword())) {
+                    rehashInBackground(user, password, ip);
                 }
-                ex.close();
+                Session session = SessionStore.create(user.getUsername());
+                // Set secure cookie for session tracking
+                ex.getResponseHeaders().add("Set-Cookie", "AUTH_SESSION=" + session.getId() + "; Path=/; HttpOnly");
+                sendSuccess(ex);
+            } else {
+                ex.sendResponseHeaders(401, -1);
             }
+            ex.close();
+        } catch (PasswordHasher.TooBusyException e) {
+            sendTooBusy(ex);
         }
-        else if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
-            String cookie = ex.getRequestHeaders().getFirst("Cookie");
-            String sid = extractSid(cookie);
-            String username = (sid != null) ? activeSessions.get(sid) : null;
-
-            // 1. FORGOT PASSWORD (Must be accessible without login)
-            if (path.contains("/api/forgot-password")) {
-                String query = ex.getRequestURI().getQuery();
-                if (query != null && query.contains("=")) {
-                    String email = query.split("=")[1];
-                    boolean found = false;
-                    for (User u : userDatabase.values()) {
-                        if (u.getEmail().equalsIgnoreCase(email)) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (found) {
-                        sendJsonResponse(ex, "{\"success\": true}");
-                    } else {
-                        ex.sendResponseHeaders(404, -1);
-                        ex.close();
-                    }
-                }
-                return;
-            }
-
-            // 2. USER DATA (Modified to return null if guest, allowing Home page to load)
-            if (path.contains("/api/user-data")) {
-                if (username != null) {
-                    User user = userDatabase.get(username);
-                    sendJsonResponse(ex, "{\"username\":\"" + user.getUsername() + "\", \"email\":\"" + user.getEmail() + "\"}");
-                } else {
-                    // Send null so index.html knows to show the guest view
-                    sendJsonResponse(ex, "{\"username\": null}");
-                }
-                return;
-            }
+    }
 
-            // 3. STRICT SESSION CHECK (Only for protected actions like logout/history)
-            if (username == null) {
-                ex.sendResponseHeaders(401, -1);
-                ex.close();
-                return;
+    /** Must be accessible without login. */
+    void forgotPassword(HttpExchange ex) throws IOException {
+        String email = RequestContext.of(ex).query("email");
+        if (email == null) {
+            ex.sendResponseHeaders(400, -1);
+            ex.close();
+            return;
+        }
+        boolean found = false;
+        for (User u : userDatabase.values()) {
+            if (u.getEmail().equalsIgnoreCase(email)) {
+                found = true;
+                break;
             }
+        }
+        if (found) {
+            sendSuccess(ex);
+        } else {
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+        }
+    }
 
-            if (path.contains("/api/user-orders")) {
-                loadOrdersForUser(ex, username);
+    /** Returns a null username for guests, so the home page can still load. */
+    void userData(HttpExchange ex) throws IOException {
+        Session session = RequestContext.of(ex).session();
+        if (session != null) {
+            User user = userDatabase.get(session.getUsername());
+            try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+                w.beginObject().field("username", user.getUsername()).field("email", user.getEmail()).endObject();
             }
-            else if (path.contains("/logout")) {
-                activeSessions.remove(sid);
-                sendRedirect(ex, "/login.html");
+        } else {
+            // Send null so index.html knows to show the guest view
+            try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+                w.beginObject().name("username").nullValue().endObject();
             }
         }
     }
 
-    private void saveUserToFile(User user) {
+    void userOrders(HttpExchange ex) throws IOException {
+        RequestContext ctx = RequestContext.of(ex);
+        Session session = ctx.session();
+        if (session == null) {
+            ex.sendResponseHeaders(401, -1);
+            ex.close();
+            return;
+        }
+        loadOrdersForUser(ctx, session.getUsername());
+    }
+
+    void logout(HttpExchange ex) throws IOException {
+        RequestContext ctx = RequestContext.of(ex);
+        if (ctx.session() == null) {
+            ex.sendResponseHeaders(401, -1);
+            ex.close();
+            return;
+        }
+        SessionStore.remove(ctx.getSessionId());
+        sendRedirect(ex, "/login.html");
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get(HASH_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Password hashing failed", e);
+        }
+    }
+
+    /** Upgrades a hash made with an old cost factor once we know the plain password is right. */
+    private void rehashInBackground(User user, String password, String ip) {
+        try {
+            PasswordHasher.hash(password, ip, user.getUsername()).thenAccept(hashed -> {
+                User upgraded = new User(user.getUsername(), user.getEmail(), hashed);
+                if (userDatabase.replace(user.getUsername(), user, upgraded)) {
+                    saveUserToFile(upgraded);
+                    PasswordHasher.countRehash();
+                }
+            });
+        } catch (PasswordHasher.TooBusyException e) {
+            // Try again on a later login
+        }
+    }
+
+    private synchronized void saveUserToFile(User user) {
         try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(USER_FILE, true)))) {
             out.println(user.getUsername() + "," + user.getEmail() + "," + user.getPassword());
-        } catch (IOException e) { e.printStackTrace(); }
+        } catch (IOException e) {
+            LOG.error("Cannot save user", e, "file", USER_FILE, "username", user.getUsername());
+        }
     }
 
     private void loadUsersFromFile() {
@@ -134,40 +181,58 @@ public class AuthHandler implements HttpHandler {
                 String[] p = line.split(",");
                 if (p.length == 3) userDatabase.put(p[0], new User(p[0], p[1], p[2]));
             }
-        } catch (IOException e) { e.printStackTrace(); }
+        } catch (IOException e) {
+            LOG.error("Cannot load users", e, "file", USER_FILE);
+        }
     }
 
-    private void loadOrdersForUser(HttpExchange ex, String username) throws IOException {
-        StringBuilder json = new StringBuilder("[");
-        try (BufferedReader reader = new BufferedReader(new FileReader(ORDER_FILE))) {
-            String line; boolean first = true;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",");
-                if (p.length >= 5 && p[0].equals(username)) {
-                    if (!first) json.append(",");
-                    json.append(String.format("{\"id\":\"%s\", \"date\":\"%s\", \"total\":\"%s\", \"status\":\"%s\"}", p[1], p[2], p[3], p[4]));
-                    first = false;
-                }
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
+    /** GET /api/user-orders?limit=N&cursor=C - newest first; the next cursor comes back in X-Next-Cursor. */
+    private void loadOrdersForUser(RequestContext ctx, String username) throws IOException {
+        HttpExchange ex = ctx.getExchange();
+        int limit;
+        Integer cursor;
+        try {
+            limit = Math.max(1, Math.min(MAX_PAGE_SIZE, ctx.queryInt("limit", DEFAULT_PAGE_SIZE)));
+            cursor = ctx.query("cursor") != null ? ctx.queryInt("cursor", 0) : null;
+        } catch (NumberFormatException e) {
+            ex.sendResponseHeaders(400, -1);
+            ex.close();
+            return;
+        }
+
+        long start = System.nanoTime();
+        UserOrderIndex.Page page = UserOrderIndex.find(username, limit, cursor);
+        ctx.time("history", start);
+        if (page.getNextCursor() != null) {
+            ex.getResponseHeaders().set("X-Next-Cursor", String.valueOf(page.getNextCursor()));
+        }
+        try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+            w.beginArray();
+            for (UserOrderIndex.Entry e : page.getEntries()) {
+                w.beginObject()
+                        .field("id", e.getId())
+                        .field("date", e.getDate())
+                        .field("total", e.getTotal())
+                        .field("status", e.getStatus())
+                        .endObject();
             }
+            w.endArray();
         }
-        json.append("]");
-        sendJsonResponse(ex, json.toString());
     }
 
-    private void sendJsonResponse(HttpExchange ex, String json) throws IOException {
-        ex.getResponseHeaders().set("Content-Type", "application/json");
-        ex.sendResponseHeaders(200, json.getBytes().length);
-        ex.getResponseBody().write(json.getBytes());
-        ex.close();
+    private void sendSuccess(HttpExchange ex) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+            w.beginObject().field("success", true).endObject();
+        }
     }
 
-    private String extractSid(String cookieHeader) {
-        if (cookieHeader == null) return null;
-        for (String cookie : cookieHeader.split(";")) {
-            String[] parts = cookie.trim().split("=");
-            if (parts.length == 2 && parts[0].equals("AUTH_SESSION")) return parts[1];
-        }
-        return null;
+    private void sendTooBusy(HttpExchange ex) throws IOException {
+        ex.getResponseHeaders().set("Retry-After", "1");
+        ex.sendResponseHeaders(429, -1);
+        ex.close();
     }
 
     private void sendRedirect(HttpExchange ex, String location) throws IOException {
@@ -2,7 +2,6 @@ package server;
 
 import com.sun.net.httpserver.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import server.model.*;
 
@@ -10,70 +9,67 @@ public class CartAPIServlet implements HttpHandler {
     @Override
     public void handle(HttpExchange ex) throws IOException {
 
-        String cookieHeader = ex.getRequestHeaders().getFirst("Cookie");
-        String sid = extractSid(cookieHeader);
-        String username = (sid != null) ? AuthHandler.activeSessions.get(sid) : null;
+        RequestContext ctx = RequestContext.of(ex);
+        Session session = ctx.session();
 
-        if (username == null) {
-            String json = "{\"success\":false, \"message\":\"Please login first!\"}";
-            sendResponse(ex, 401, json);
+        if (session == null) {
+            sendMessage(ex, 401, false, "Please login first!");
             return; // Stops the guest from reaching the cart logic below
         }
 
         String method = ex.getRequestMethod();
-        ShoppingCart cart = MainServer.getCart(ex);
+        ShoppingCart cart = session.getCart();
 
         if (method.equalsIgnoreCase("POST")) {
-            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, String> params = MainServer.parse(body);
+            Map<String, String> params = ctx.formParams();
 
             String action = params.get("action");
             String productId = params.get("productId");
 
             if ("add".equals(action)) {
-                int qty = Integer.parseInt(params.getOrDefault("quantity", "1"));
+                int qty;
+                try {
+                    qty = Integer.parseInt(params.getOrDefault("quantity", "1"));
+                } catch (NumberFormatException e) {
+                    qty = 0;
+                }
+                if (qty <= 0) {
+                    sendMessage(ex, 400, false, "Quantity must be a positive number");
+                    return;
+                }
                 Product p = ProductDatabase.getProductById(productId);
 
                 if (p != null) {
-                    cart.addItem(p.getId(), p.getName(), p.getPrice(), qty);
-                    String json = String.format("{\"success\":true, \"cartCount\":%d, \"message\":\"Added to cart!\"}",
-                            cart.getItems().size());
-                    sendResponse(ex, 200, json);
+                    long start = System.nanoTime();
+                    cart.addItem(p.getId(), p.getName(), p.getPriceCents(), qty);
+                    ctx.time("cart", start);
+                    try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+                        w.beginObject().field("success", true).field("cartCount", cart.getItemCount())
+                                .field("message", "Added to cart!").endObject();
+                    }
                 } else {
-                    String json = "{\"success\":false, \"message\":\"Product not found\"}";
-                    sendResponse(ex, 404, json);
+                    sendMessage(ex, 404, false, "Product not found");
                 }
             } else if ("delete".equals(action)) {
+                long start = System.nanoTime();
                 cart.removeItem(productId);
-                String json = String.format("{\"success\":true, \"cartCount\":%d}",
-                        cart.getItems().size());
-                sendResponse(ex, 200, json);
+                ctx.time("cart", start);
+                try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+                    w.beginObject().field("success", true).field("cartCount", cart.getItemCount()).endObject();
+                }
+            } else {
+                sendMessage(ex, 400, false, "Unknown action");
             }
         } else if (method.equalsIgnoreCase("GET")) {
-            int itemCount = cart.getItems().stream()
-                    .mapToInt(CartItem::getQuantity)
-                    .sum();
-            String json = String.format("{\"cartCount\":%d}", itemCount);
-            sendResponse(ex, 200, json);
-        }
-    }
-
-    private String extractSid(String cookieHeader) {
-        if (cookieHeader == null) return null;
-        for (String cookie : cookieHeader.split(";")) {
-            String[] parts = cookie.trim().split("=");
-            if (parts.length == 2 && parts[0].equals("AUTH_SESSION")) {
-                return parts[1];
+            try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+                w.beginObject().field("cartCount", cart.getItemCount()).endObject();
             }
         }
-        return null;
     }
 
-    private void sendResponse(HttpExchange ex, int code, String json) throws IOException {
-        byte[] res = json.getBytes(StandardCharsets.UTF_8);
-        ex.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
-        ex.sendResponseHeaders(code, res.length);
-        ex.getResponseBody().write(res);
-        ex.close();
+    private void sendMessage(HttpExchange ex, int code, boolean success, String message) throws IOException {
+        try (JsonWriter w = JsonWriter.respond(ex, code)) {
+            w.beginObject().field("success", success).field("message", message).endObject();
+        }
     }
 }
\ No newline at end of file
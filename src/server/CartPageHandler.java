@@ -8,16 +8,20 @@ import server.model.*;
 public class CartPageHandler implements HttpHandler {
     @Override
     public void handle(HttpExchange ex) throws IOException {
-        ShoppingCart cart = MainServer.getCart(ex);
+        Session session = MainServer.getSession(ex);
+        // Guests just see an empty cart; nothing is stored for them
+        ShoppingCart cart = session != null ? session.getCart() : new ShoppingCart();
         String html = new String(MainServer.readFile("web/cart.html"), StandardCharsets.UTF_8);
 
         StringBuilder rows = new StringBuilder();
         for (CartItem item : cart.getItems()) {
             rows.append("<tr>")
                     .append("<td>").append(item.getProductName()).append("</td>")
-                    .append("<td>RM ").append(String.format("%.2f", item.getPrice())).append("</td>")
+                    .append("<td>RM ");
+            Money.append(rows, item.getPriceCents()).append("</td>")
                     .append("<td>").append(item.getQuantity()).append("</td>")
-                    .append("<td>RM ").append(String.format("%.2f", item.getSubtotal())).append("</td>")
+                    .append("<td>RM ");
+            Money.append(rows, item.getSubtotalCents()).append("</td>")
                     .append("<td><button type='button' onclick=\"removeItem('")
                     .append(item.getProductId())
                     .append("')\">Remove</button></td>")
@@ -28,7 +32,7 @@ public class CartPageHandler implements HttpHandler {
                 "<tbody id=\"cart-table-body\">" + rows.toString() + "</tbody>");
 
         html = html.replace("id=\"cart-grand-total\">0.00",
-                "id=\"cart-grand-total\">" + String.format("%.2f", cart.calculateTotal()));
+                "id=\"cart-grand-total\">" + Money.format(cart.getTotalCents()));
 
         byte[] response = html.getBytes(StandardCharsets.UTF_8);
         ex.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
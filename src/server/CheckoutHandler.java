@@ -3,81 +3,116 @@ package server;
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import server.model.*;
 
 public class CheckoutHandler implements HttpHandler {
+    private static final Log LOG = Log.get(CheckoutHandler.class);
     @Override
     public void handle(HttpExchange ex) throws IOException {
         String method = ex.getRequestMethod();
 
         if (method.equalsIgnoreCase("GET")) {
-            File file = new File("web/checkout.html");
-            if (!file.exists()) {
+            StaticAssetCache.Asset page = StaticAssetCache.get("/checkout.html");
+            if (page == null) {
                 String error = "Checkout page missing in web folder!";
                 ex.sendResponseHeaders(404, error.length());
                 ex.getResponseBody().write(error.getBytes());
                 ex.close();
                 return;
             }
-            byte[] content = Files.readAllBytes(file.toPath());
-            ex.getResponseHeaders().add("Content-Type", "text/html");
-            ex.sendResponseHeaders(200, content.length);
-            ex.getResponseBody().write(content);
+            StaticAssetCache.send(ex, page);
             ex.close();
             return;
         }
 
         if (method.equalsIgnoreCase("POST")) {
-            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, String> data = MainServer.parse(body);
+            RequestContext ctx = RequestContext.of(ex);
+            Map<String, String> data = ctx.formParams();
 
-            ShoppingCart cart = MainServer.getCart(ex);
+            Session session = ctx.session();
+            ShoppingCart cart = session != null ? session.getCart() : new ShoppingCart();
 
-            String cookieHeader = ex.getRequestHeaders().getFirst("Cookie");
-            String sessionId = null;
-            if (cookieHeader != null) {
-                for (String cookie : cookieHeader.split(";")) {
-                    String[] parts = cookie.trim().split("=");
-                    if (parts.length == 2 && parts[0].equals("AUTH_SESSION")) {
-                        sessionId = parts[1];
-                    }
-                }
+            List<CartItem> items;
+            long total;
+            long start = System.nanoTime();
+            // Take lines and total together so a concurrent add can't split them
+            synchronized (cart) {
+                items = cart.getItems();
+                total = cart.getTotalCents();
             }
+            ctx.time("cart", start);
 
-            String username = (sessionId != null) ? AuthHandler.activeSessions.get(sessionId) : "Guest";
-            String orderIdStr = "ORD" + (1000 + new Random().nextInt(9000));
-            String date = java.time.LocalDate.now().toString();
-            String totalStr = String.format("%.2f", cart.calculateTotal()); // Use real cart total
-
-            String orderLine = String.format("%s,%s,%s,%s,Pending\n", username, orderIdStr, date, totalStr);
-            try (FileWriter fw = new FileWriter("orderdata.txt", true)) {
-                fw.write(orderLine);
-            } catch (IOException e) {
-                System.out.println("Error writing to order history file.");
+            start = System.nanoTime();
+            Reservation reservation = ProductDatabase.reserve(items);
+            ctx.time("reserve", start);
+            if (!reservation.isOk()) {
+                Product p = ProductDatabase.getProductById(reservation.getShortProductId());
+                String msg = (p != null ? p.getName() : reservation.getShortProductId()) + " does not have enough stock left";
+                byte[] res = msg.getBytes(StandardCharsets.UTF_8);
+                ex.sendResponseHeaders(409, res.length);
+                ex.getResponseBody().write(res);
+                ex.close();
+                return;
             }
 
-            long orderId = System.currentTimeMillis();
-            Order order = new Order(
-                    orderId,
-                    data.get("name"),
-                    data.get("phone"),
-                    data.get("address"),
-                    data.get("paymentMethod"),
-                    data.getOrDefault("cc_number", "N/A"),
-                    data.getOrDefault("cc_expiry", "N/A"),
-                    new ArrayList<>(cart.getItems()),
-                    cart.calculateTotal()
-            );
+            boolean durable = false;
+            try {
+                String username = (session != null) ? session.getUsername() : "Guest";
+                String orderIdStr = "ORD" + (1000 + new Random().nextInt(9000));
+                String date = java.time.LocalDate.now().toString();
+                String totalStr = Money.format(total); // Use real cart total
 
-            OrderDatabase.addOrder(order);
+                start = System.nanoTime();
+                CompletableFuture<Void> historyWrite = UserOrderIndex.add(username,
+                        new UserOrderIndex.Entry(orderIdStr, date, totalStr, "Pending"));
+                ctx.time("history", start);
 
-            MainServer.clearCart(ex);
+                long orderId = OrderDatabase.nextOrderId();
+                Order order = new Order(
+                        orderId,
+                        data.get("name"),
+                        data.get("phone"),
+                        data.get("address"),
+                        data.get("paymentMethod"),
+                        data.getOrDefault("cc_number", "N/A"),
+                        data.getOrDefault("cc_expiry", "N/A"),
+                        items,
+                        total
+                );
 
-            ex.getResponseHeaders().add("Location", "/order_confirmation.html?id=" + orderId);
-            ex.sendResponseHeaders(302, -1);
-            ex.close();
+                start = System.nanoTime();
+                CompletableFuture<Void> orderWrite = OrderDatabase.addOrder(order);
+                ctx.time("order", start);
+                start = System.nanoTime();
+                CompletableFuture<Void> stockWrite = ProductDatabase.commit(reservation);
+                ctx.time("stock", start);
+
+                // Only answer once the batch holding this checkout is durable
+                start = System.nanoTime();
+                try {
+                    CompletableFuture.allOf(historyWrite, orderWrite, stockWrite).join();
+                    ctx.time("fsync", start);
+                } catch (CompletionException e) {
+                    ctx.time("fsync", start);
+                    LOG.error("Error persisting order", e.getCause(), "orderId", orderId);
+                    ex.sendResponseHeaders(500, -1);
+                    ex.close();
+                    return;
+                }
+                durable = true;
+
+                if (session != null) session.clearCart();
+
+                ex.getResponseHeaders().add("Location", "/order_confirmation.html?id=" + orderId);
+                ex.sendResponseHeaders(302, -1);
+                ex.close();
+            } finally {
+                // Anything short of a durable order gives the stock back
+                if (!durable) ProductDatabase.release(reservation);
+            }
         }
     }
 }
\ No newline at end of file
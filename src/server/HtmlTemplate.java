@@ -0,0 +1,71 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An HTML page split once into literal byte chunks and {{NAME}} placeholders,
+ * so rendering is a single pass of array copies instead of one String.replace
+ * over the whole page per value.
+ */
+public class HtmlTemplate {
+    private final byte[][] literals;
+    private final String[] names;
+    private final int literalBytes;
+
+    public HtmlTemplate(byte[] source) {
+        String text = new String(source, StandardCharsets.UTF_8);
+        List<byte[]> lits = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = text.indexOf("{{", pos);
+            int close = open < 0 ? -1 : text.indexOf("}}", open + 2);
+            if (close < 0) {
+                lits.add(text.substring(pos).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            lits.add(text.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+            keys.add(text.substring(open + 2, close).trim());
+            pos = close + 2;
+        }
+        this.literals = lits.toArray(new byte[0][]);
+        this.names = keys.toArray(new String[0]);
+        int total = 0;
+        for (byte[] l : literals) total += l.length;
+        this.literalBytes = total;
+    }
+
+    /** Fills in the placeholders; unknown names render as empty. Values are HTML-escaped. */
+    public byte[] render(Map<String, String> values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(literalBytes + 64 * names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeBytes(literals[i]);
+            String v = values.get(names[i]);
+            if (v != null) out.writeBytes(escape(v).getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeBytes(literals[literals.length - 1]);
+        return out.toByteArray();
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String rep;
+            switch (c) {
+                case '<': rep = "&lt;"; break;
+                case '>': rep = "&gt;"; break;
+                case '&': rep = "&amp;"; break;
+                case '"': rep = "&quot;"; break;
+                default: rep = null;
+            }
+            if (rep != null && sb == null) sb = new StringBuilder(s.length() + 16).append(s, 0, i);
+            if (sb != null) {
+                if (rep != null) sb.append(rep); else sb.append(c);
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import server.model.LatencyHistogram;
+import server.model.Log;
+import server.model.Metrics;
+
+/**
+ * Wraps a handler with per-route metrics: requests by status code, requests
+ * in flight and a latency histogram. The route label is the pattern it was
+ * registered under in the {@link Router}, so the label set stays small
+ * whatever URLs clients send.
+ *
+ * The handler sees a {@link TimedExchange}, so its responses carry a
+ * Server-Timing header, and requests over the slow threshold are kept in
+ * {@link SlowRequests}.
+ *
+ * This is also where every exchange ends. A handler that throws, or returns
+ * without answering, gets a 500 sent for it. The exchange is always closed,
+ * so a forgotten close can't leak the connection.
+ */
+public class InstrumentedHandler implements HttpHandler {
+    private static final Log LOG = Log.get(InstrumentedHandler.class);
+
+    private final String route;
+    private final HttpHandler delegate;
+    private final LatencyHistogram latency;
+    private final AtomicLong inFlight;
+    private final ConcurrentHashMap<Integer, LongAdder> byStatus = new ConcurrentHashMap<>();
+
+    public InstrumentedHandler(String route, HttpHandler delegate) {
+        this.route = route;
+        this.delegate = delegate;
+        this.latency = Metrics.timer("cookiehaven_http_request_seconds", "Time to handle a request, by route", "route", route);
+        this.inFlight = Metrics.gauge("cookiehaven_http_in_flight", "Requests being handled right now, by route", "route", route);
+    }
+
+    @Override
+    public void handle(HttpExchange original) throws IOException {
+        HttpExchange ex = new TimedExchange(original);
+        RequestContext ctx = RequestContext.of(ex);
+        inFlight.incrementAndGet();
+        try {
+            delegate.handle(ex);
+            if (ex.getResponseCode() < 0) {
+                LOG.warn("Handler sent no response", "route", route, "path", ex.getRequestURI().getPath());
+                ex.sendResponseHeaders(500, -1);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Request failed", e, "route", route, "path", ex.getRequestURI().getPath());
+            if (ex.getResponseCode() < 0) sendQuietly(ex, 500);
+        } finally {
+            ex.close();
+            inFlight.decrementAndGet();
+            long took = ctx.elapsedNanos();
+            latency.record(took);
+            int status = ex.getResponseCode();
+            statusCounter(status).increment();
+            SlowRequests.offer(ctx, route, status, took);
+        }
+    }
+
+    private static void sendQuietly(HttpExchange ex, int status) {
+        try {
+            ex.sendResponseHeaders(status, -1);
+        } catch (IOException e) {
+            // The client has gone; closing is all that's left
+        }
+    }
+
+    private LongAdder statusCounter(int status) {
+        LongAdder counter = byStatus.get(status);
+        if (counter == null) {
+            counter = byStatus.computeIfAbsent(status, s -> Metrics.counter("cookiehaven_http_requests_total",
+                    "Requests handled, by route and status code (-1: no response sent)",
+                    "route", route, "status", String.valueOf(s)));
+        }
+        return counter;
+    }
+}
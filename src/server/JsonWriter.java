@@ -0,0 +1,299 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import server.model.Money;
+
+/**
+ * Streaming JSON encoder that writes UTF-8 straight into a response.
+ *
+ * Output collects in a per-thread 8 KB buffer. If the whole document fits,
+ * it goes out in one write with a Content-Length. Once the buffer fills up,
+ * the headers are sent for chunked transfer and each full buffer is flushed
+ * to the client, so a response never holds more than one buffer of payload
+ * no matter how long the list is.
+ *
+ * A response closed before its top-level value is complete, which is what
+ * happens when the code inside the try throws, is never sent as a success:
+ * it becomes a bare 500, or is cut short if the headers already went out.
+ *
+ * Commas are inserted automatically:
+ * <pre>
+ * try (JsonWriter w = JsonWriter.respond(ex, 200)) {
+ *     w.beginObject().name("success").value(true).endObject();
+ * }
+ * </pre>
+ */
+public final class JsonWriter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final HttpExchange exchange;
+    private final int status;
+    private OutputStream out;
+    private final byte[] buf;
+    private int pos;
+
+    // Per nesting level: set once that level has had a value, so the next one needs a comma
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+    private final StringBuilder scratch = new StringBuilder(24);
+
+    private JsonWriter(HttpExchange exchange, int status, OutputStream out) {
+        this.exchange = exchange;
+        this.status = status;
+        this.out = out;
+        byte[] b = BUFFERS.get();
+        // A writer nested in another on the same thread must not share its buffer
+        BUFFERS.set(null);
+        this.buf = b != null ? b : new byte[BUFFER_SIZE];
+    }
+
+    /** Writes a JSON response; headers go out on the first flush or on close. */
+    public static JsonWriter respond(HttpExchange ex, int status) {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        return new JsonWriter(ex, status, null);
+    }
+
+    /** Writes JSON to any stream, e.g. a file or an in-memory buffer. */
+    public static JsonWriter to(OutputStream out) {
+        return new JsonWriter(null, 0, out);
+    }
+
+    // --- Structure ---
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (hasValue[depth]) put((byte) ',');
+        hasValue[depth] = true;
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    // --- Values ---
+
+    public JsonWriter value(String s) throws IOException {
+        beforeValue();
+        if (s == null) {
+            ascii("null");
+        } else {
+            string(s);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long n) throws IOException {
+        beforeValue();
+        if (n == Long.MIN_VALUE) {
+            ascii(Long.toString(n));
+            return this;
+        }
+        if (n < 0) {
+            put((byte) '-');
+            n = -n;
+        }
+        digits(n);
+        return this;
+    }
+
+    public JsonWriter value(boolean b) throws IOException {
+        beforeValue();
+        ascii(b ? "true" : "false");
+        return this;
+    }
+
+    /** Finite doubles as written by Double.toString; NaN and infinities become null. */
+    public JsonWriter value(double d) throws IOException {
+        beforeValue();
+        ascii(Double.isFinite(d) ? Double.toString(d) : "null");
+        return this;
+    }
+
+    /** An amount in sen, written as a decimal number like 12.50. */
+    public JsonWriter money(long cents) throws IOException {
+        beforeValue();
+        scratch.setLength(0);
+        Money.append(scratch, cents);
+        for (int i = 0; i < scratch.length(); i++) {
+            put((byte) scratch.charAt(i));
+        }
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        ascii("null");
+        return this;
+    }
+
+    /** Shorthand for name(n).value(v). */
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /** Sends whatever is left and ends the response (or closes the stream). */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (exchange != null && !(depth == 0 && hasValue[0])) {
+                abort();
+                return;
+            }
+            if (out == null) {
+                // Everything fit in the buffer: send it with a real Content-Length
+                exchange.sendResponseHeaders(status, pos == 0 ? -1 : pos);
+                out = exchange.getResponseBody();
+            }
+            if (pos > 0) out.write(buf, 0, pos);
+            pos = 0;
+            out.close();
+        } finally {
+            BUFFERS.set(buf);
+        }
+    }
+
+    // --- Internals ---
+
+    private void abort() throws IOException {
+        pos = 0;
+        if (out == null) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.getResponseBody().close();
+        } else {
+            // Chunks already went out under the original status; end the body where it stopped
+            out.close();
+        }
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        if (++depth >= MAX_DEPTH) throw new IllegalStateException("JSON nested too deeply");
+        hasValue[depth] = false;
+        put((byte) c);
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        depth--;
+        put((byte) c);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasValue[depth]) put((byte) ',');
+        hasValue[depth] = true;
+    }
+
+    private void digits(long n) throws IOException {
+        if (n >= 10) digits(n / 10);
+        put((byte) ('0' + (int) (n % 10)));
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"': put((byte) '\\'); put((byte) '"'); break;
+                    case '\\': put((byte) '\\'); put((byte) '\\'); break;
+                    case '\n': put((byte) '\\'); put((byte) 'n'); break;
+                    case '\r': put((byte) '\\'); put((byte) 'r'); break;
+                    case '\t': put((byte) '\\'); put((byte) 't'); break;
+                    default:
+                        if (c < 0x20) {
+                            unicodeEscape(c);
+                        } else {
+                            put((byte) c);
+                        }
+                }
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // Valid JSON, but not valid inside a JavaScript string literal
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogate: not encodable, same as String.getBytes would do
+                put((byte) '?');
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void unicodeEscape(char c) throws IOException {
+        put((byte) '\\');
+        put((byte) 'u');
+        put(HEX[(c >> 12) & 0xF]);
+        put(HEX[(c >> 8) & 0xF]);
+        put(HEX[(c >> 4) & 0xF]);
+        put(HEX[c & 0xF]);
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length) flushBuffer();
+        buf[pos++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (out == null) {
+            // Too big for one buffer: switch to chunked transfer
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+        }
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
@@ -7,53 +7,73 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import server.model.*;
 
 public class MainServer {
-    private static final Map<String, ShoppingCart> SESSIONS = new ConcurrentHashMap<>();
-    private static final String SESSION_COOKIE_KEY = "AUTH_SESSION";
+    private static final Log LOG = Log.get(MainServer.class);
 
     public static void main(String[] args) throws Exception {
 
-        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
+        // Open the order store up front so reports and the order index are populated before the first request
+        OrderDatabase.getOrderCount();
 
-        AdminHandler adminHandler = new AdminHandler();
-        server.createContext("/admin/products/api", adminHandler);
-        server.createContext("/admin", new AdminHandler());
-        server.createContext("/api/cart", new CartAPIServlet());
-        server.createContext("/checkout", new CheckoutHandler());
-        server.createContext("/api/place-order", new CheckoutHandler());
-        server.createContext("/cart.html", new CartPageHandler());
-        server.createContext("/", new StaticFileHandler());
-        server.createContext("/api", new AuthHandler());
-
-
-        AuthHandler authHandler = new AuthHandler();
-        server.createContext("/api/register", authHandler);
-        server.createContext("/api/login", authHandler);
-        server.createContext("/logout", authHandler);
-
-        server.createContext("/login.html", new StaticFileHandler());
-        server.createContext("/register.html", new StaticFileHandler());
-        server.createContext("/my_profile.html", new StaticFileHandler());
-        server.createContext("/order_history.html", new StaticFileHandler());
-        server.createContext("/order_detail.html", new StaticFileHandler());
-        server.createContext("/privacy.html", new StaticFileHandler());
-        server.createContext("/terms.html", new StaticFileHandler());
-
-        server.setExecutor(null);
+        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
+        server.createContext("/", RequestExecutors.shedWhenBusy(routes()));
+        server.setExecutor(RequestExecutors.createRequestExecutor());
         server.start();
 
-        System.out.println("\n===========================================");
-        System.out.println("🍪 CookieHaven Server is Running!");
-        System.out.println("Shop URL:  http://localhost:8080/order.html");
-        System.out.println("Admin URL: http://localhost:8080/admin");
-        System.out.println("Admin Login: admin / 1234");
-        System.out.println("===========================================\n");
+        LOG.info("🍪 CookieHaven Server is Running!",
+                "shop", "http://localhost:8080/order.html", "admin", "http://localhost:8080/admin");
+    }
+
+    /** Every URL the server answers; anything not listed here is a static file from web/. */
+    static Router routes() {
+        Router router = new Router();
+
+        AuthHandler auth = new AuthHandler();
+        // Timed on the auth pool, so queue wait shows up in the executor stats rather than here
+        router.add("POST", "/api/register", auth::register);
+        router.add("POST", "/api/login", auth::login);
+        router.add("GET", "/api/forgot-password", auth::forgotPassword);
+        router.add("GET", "/api/user-data", auth::userData);
+        router.add("GET", "/api/user-orders", auth::userOrders);
+        router.add("GET", "/logout", auth::logout);
+
+        CheckoutHandler checkout = new CheckoutHandler();
+        router.add("GET,POST", "/api/cart", new CartAPIServlet());
+        router.add("GET,POST", "/checkout", checkout);
+        router.add("POST", "/api/place-order", checkout);
+        router.add("GET", "/cart.html", new CartPageHandler());
+
+        AdminHandler admin = new AdminHandler();
+        router.add("GET", "/admin", admin::loginPage);
+        router.add("POST", "/admin", admin::login);
+        router.add("GET", "/admin/logout", admin::logout);
+        router.add("GET", "/admin/dashboard", AdminHandler.adminOnly(admin::dashboard));
+        router.add("GET", "/admin/products", AdminHandler.adminOnly(AdminHandler.page("web/admin_products.html")));
+        router.add("POST", "/admin/products", AdminHandler.adminOnly(admin::updateProducts));
+        router.add("GET", "/admin/products/api", AdminHandler.adminOnly(admin::productsApi));
+        router.add("GET", "/admin/orders", AdminHandler.adminOnly(AdminHandler.page("web/admin_orders.html")));
+        router.add("GET", "/admin/orders/api", AdminHandler.adminOnly(admin::ordersApi));
+        router.add("GET", "/admin/orders/export", AdminHandler.adminOnly(admin::exportOrders));
+        router.add("POST", "/admin/orders/{id}/status", AdminHandler.adminOnly(admin::updateOrderStatus));
+        router.add("GET", "/admin/reports", AdminHandler.adminOnly(AdminHandler.page("web/admin_reports.html")));
+        router.add("GET", "/admin/reports/api", AdminHandler.adminOnly(admin::reportsApi));
+        router.add("GET", "/admin/stats/api", AdminHandler.adminOnly(admin::stats));
+        router.add("GET", "/admin/slow", AdminHandler.adminOnly(AdminHandler.page("web/admin_slow.html")));
+        router.add("GET", "/admin/slow/api", AdminHandler.adminOnly(admin::slowRequestsApi));
+        router.add("GET", "/admin/metrics", AdminHandler.adminOnly(admin::metrics));
+
+        router.add("GET", "/*", new StaticFileHandler());
+        return router;
     }
 
+    /** Pages under web/ come from the static asset cache; anything else is read from disk. */
     public static byte[] readFile(String path) throws IOException {
+        if (path.startsWith("web/")) {
+            StaticAssetCache.Asset asset = StaticAssetCache.get(path.substring(3));
+            if (asset != null) return asset.getBytes();
+        }
         File file = new File(path);
         if (!file.exists()) {
             throw new FileNotFoundException("File not found: " + path);
@@ -61,48 +81,14 @@ public class MainServer {
         return Files.readAllBytes(Paths.get(path));
     }
 
-    public static ShoppingCart getCart(HttpExchange ex) {
-        String sid = getSid(ex);
-        return SESSIONS.computeIfAbsent(sid, k -> new ShoppingCart());
-    }
-
-    public static void clearCart(HttpExchange ex) {
-        SESSIONS.remove(getSid(ex));
-    }
-
-    private static String getSid(HttpExchange ex) {
-        String cookie = ex.getRequestHeaders().getFirst("Cookie");
-
-        if (cookie != null) {
-            String[] cookies = cookie.split(";");
-            for (String c : cookies) {
-                String[] parts = c.trim().split("=");
-                // 2. Use "AUTH_SESSION" to match your AuthHandler
-                if (parts.length == 2 && parts[0].equals("AUTH_SESSION")) {
-                    return parts[1];
-                }
-            }
-        }
-        return null;
+    /** The caller's live session, or null for guests and expired logins. */
+    public static Session getSession(HttpExchange ex) {
+        return RequestContext.of(ex).session();
     }
 
+    /** Parses url-encoded data; handlers should prefer {@link RequestContext}, which caches it. */
     public static Map<String, String> parse(String body) {
-        Map<String, String> map = new HashMap<>();
-        if (body == null || body.isEmpty()) return map;
-
-        for (String pair : body.split("&")) {
-            String[] kv = pair.split("=", 2);
-            if (kv.length == 2) {
-                try {
-                    String key = java.net.URLDecoder.decode(kv[0], StandardCharsets.UTF_8);
-                    String value = java.net.URLDecoder.decode(kv[1], StandardCharsets.UTF_8);
-                    map.put(key, value);
-                } catch (Exception e) {
-                    map.put(kv[0], kv[1]);
-                }
-            }
-        }
-        return map;
+        return RequestContext.parseForm(body);
     }
 
     static class StaticFileHandler implements HttpHandler {
@@ -114,18 +100,12 @@ public class MainServer {
                 path = "/order.html";
             }
 
-            File file = new File("web" + path);
+            StaticAssetCache.Asset asset = StaticAssetCache.get(path);
 
-            if (file.exists() && !file.isDirectory()) {
+            if (asset != null) {
                 try {
-                    byte[] data = readFile("web" + path);
-                    String type = getMimeType(path);
-
-                    ex.getResponseHeaders().add("Content-Type", type);
                     ex.getResponseHeaders().add("X-Frame-Options", "DENY");
-
-                    ex.sendResponseHeaders(200, data.length);
-                    ex.getResponseBody().write(data);
+                    StaticAssetCache.send(ex, asset);
                 } catch (Exception e) {
                     sendError(ex, 500, "Internal Server Error");
                 }
@@ -135,15 +115,6 @@ public class MainServer {
             ex.close();
         }
 
-        private String getMimeType(String path) {
-            if (path.endsWith(".css")) return "text/css; charset=UTF-8";
-            if (path.endsWith(".js")) return "application/javascript; charset=UTF-8";
-            if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-            if (path.endsWith(".png")) return "image/png";
-            if (path.endsWith(".gif")) return "image/gif";
-            return "text/html; charset=UTF-8";
-        }
-
         private void sendError(HttpExchange ex, int code, String msg) throws IOException {
             byte[] response = msg.getBytes(StandardCharsets.UTF_8);
             ex.sendResponseHeaders(code, response.length);
@@ -0,0 +1,89 @@
+package server;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import server.model.Metrics;
+
+/**
+ * Wraps an executor and keeps the numbers needed to size it: how many tasks
+ * are waiting, how many are running, how long they waited and how many were
+ * turned away.
+ */
+public class MeteredExecutor implements Executor {
+    private final String name;
+    private final ExecutorService delegate;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected;
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong running = new AtomicLong();
+    private final AtomicLong maxQueued = new AtomicLong();
+
+    public MeteredExecutor(String name, ExecutorService delegate) {
+        this.name = name;
+        this.delegate = delegate;
+        Metrics.gauge("cookiehaven_executor_queued", "Tasks waiting for a thread", this::getQueued, "executor", name);
+        Metrics.gauge("cookiehaven_executor_running", "Tasks running", this::getRunning, "executor", name);
+        // Only ever goes up, so export it as a counter and let rate() work on it
+        this.rejected = Metrics.counter("cookiehaven_executor_rejected_total",
+                "Tasks turned away because the queue was full", "executor", name);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        submitted.increment();
+        long depth = queued.incrementAndGet();
+        maxQueued.accumulateAndGet(depth, Math::max);
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                queueWaitNanos.add(System.nanoTime() - enqueuedAt);
+                running.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    void countRejected() {
+        rejected.increment();
+    }
+
+    public String getName() { return name; }
+    public long getSubmitted() { return submitted.sum(); }
+    public long getCompleted() { return completed.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getQueued() { return queued.get(); }
+    public long getMaxQueued() { return maxQueued.get(); }
+    public long getRunning() { return running.get(); }
+
+    public double getAvgQueueWaitMillis() {
+        long done = submitted.sum() - queued.get();
+        return done == 0 ? 0 : queueWaitNanos.sum() / 1_000_000.0 / done;
+    }
+
+    public void writeJson(JsonWriter w) throws IOException {
+        w.beginObject()
+                .field("name", name)
+                .field("submitted", getSubmitted())
+                .field("completed", getCompleted())
+                .field("rejected", getRejected())
+                .field("queued", getQueued())
+                .field("maxQueued", getMaxQueued())
+                .field("running", getRunning())
+                .name("avgQueueWaitMs").value(Math.round(getAvgQueueWaitMillis() * 1000) / 1000.0)
+                .endObject();
+    }
+}
@@ -0,0 +1,167 @@
+package server;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.mindrot.jbcrypt.BCrypt;
+import server.model.LatencyHistogram;
+import server.model.Metrics;
+
+/**
+ * Runs BCrypt on its own CPU-sized pool so a burst of logins cannot starve
+ * cart and checkout traffic. Work is admitted only while the total number of
+ * pending hashes, and the number per client IP and per username, stay under
+ * their caps; anything beyond that is rejected straight away.
+ *
+ * Settings: -Dcookiehaven.bcrypt.cost (default 10), -Dcookiehaven.hash.threads,
+ * -Dcookiehaven.hash.maxPending, -Dcookiehaven.hash.perIp, -Dcookiehaven.hash.perUser.
+ */
+public class PasswordHasher {
+    public static final int COST = Integer.getInteger("cookiehaven.bcrypt.cost", 10);
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int PER_IP = Integer.getInteger("cookiehaven.hash.perIp", 4);
+    private static final int PER_USER = Integer.getInteger("cookiehaven.hash.perUser", 2);
+
+    private static final Semaphore ADMISSION = new Semaphore(Integer.getInteger("cookiehaven.hash.maxPending", CORES * 4));
+    private static final Map<String, Integer> PENDING_BY_IP = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> PENDING_BY_USER = new ConcurrentHashMap<>();
+    private static final MeteredExecutor POOL = RequestExecutors.register(new MeteredExecutor("bcrypt",
+            Executors.newFixedThreadPool(Integer.getInteger("cookiehaven.hash.threads", CORES), r -> {
+                Thread t = new Thread(r, "bcrypt");
+                t.setDaemon(true);
+                return t;
+            })));
+
+    private static final LongAdder hashCount = new LongAdder();
+    private static final LongAdder hashNanos = new LongAdder();
+    private static final AtomicLong maxHashNanos = new AtomicLong();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder rehashed = new LongAdder();
+    private static final LatencyHistogram HASH_TIME = Metrics.stage("bcrypt");
+
+    /** Thrown when a hash request is over one of the admission caps. */
+    public static class TooBusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooBusyException(String message) {
+            super(message);
+        }
+    }
+
+    public static CompletableFuture<String> hash(String password, String ip, String username) {
+        return submit(ip, username, () -> BCrypt.hashpw(password, BCrypt.gensalt(COST)));
+    }
+
+    public static CompletableFuture<Boolean> check(String password, String hashed, String ip, String username) {
+        return submit(ip, username, () -> BCrypt.checkpw(password, hashed));
+    }
+
+    /** True when the stored hash was made with a different cost than the configured one. */
+    public static boolean needsRehash(String hashed) {
+        // Format: $2a$10$...
+        if (hashed == null || hashed.length() < 7 || hashed.charAt(0) != '$') return true;
+        try {
+            return Integer.parseInt(hashed.substring(4, 6)) != COST;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(String ip, String username, Supplier<T> work) {
+        if (!acquire(PENDING_BY_IP, ip, PER_IP)) {
+            rejected.increment();
+            throw new TooBusyException("Too many password requests from this address");
+        }
+        if (!acquire(PENDING_BY_USER, username, PER_USER)) {
+            release(PENDING_BY_IP, ip);
+            rejected.increment();
+            throw new TooBusyException("Too many password requests for this account");
+        }
+        if (!ADMISSION.tryAcquire()) {
+            release(PENDING_BY_IP, ip);
+            release(PENDING_BY_USER, username);
+            rejected.increment();
+            throw new TooBusyException("Password service is busy");
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            POOL.execute(() -> {
+                long start = System.nanoTime();
+                T value = null;
+                RuntimeException error = null;
+                try {
+                    value = work.get();
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    long took = System.nanoTime() - start;
+                    hashCount.increment();
+                    hashNanos.add(took);
+                    maxHashNanos.accumulateAndGet(took, Math::max);
+                    HASH_TIME.record(took);
+                    release(PENDING_BY_IP, ip);
+                    release(PENDING_BY_USER, username);
+                    ADMISSION.release();
+                }
+                // Complete only after the slots are free, so a follow-up call from the caller is admitted
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(PENDING_BY_IP, ip);
+            release(PENDING_BY_USER, username);
+            ADMISSION.release();
+            rejected.increment();
+            throw new TooBusyException("Password service is busy");
+        }
+        return result;
+    }
+
+    static void countRehash() {
+        rehashed.increment();
+    }
+
+    // compute/computeIfPresent run atomically per key, so a release that drops an
+    // idle entry can't race an acquire into a counter that is no longer in the map
+    private static boolean acquire(Map<String, Integer> counts, String key, int cap) {
+        boolean[] admitted = new boolean[1];
+        counts.compute(key == null ? "" : key, (k, n) -> {
+            int pending = n == null ? 0 : n;
+            if (pending >= cap) return n;
+            admitted[0] = true;
+            return pending + 1;
+        });
+        return admitted[0];
+    }
+
+    private static void release(Map<String, Integer> counts, String key) {
+        // Drop idle entries so the maps only hold clients with work in flight
+        counts.computeIfPresent(key == null ? "" : key, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    public static void writeStats(JsonWriter w) throws IOException {
+        long n = hashCount.sum();
+        w.beginObject()
+                .field("cost", COST)
+                .field("hashes", n)
+                .name("avgHashMs").value(millis(n == 0 ? 0 : hashNanos.sum() / n))
+                .name("maxHashMs").value(millis(maxHashNanos.get()))
+                .field("rejected", rejected.sum())
+                .field("rehashed", rehashed.sum())
+                .field("pending", POOL.getQueued() + POOL.getRunning())
+                .name("avgQueueWaitMs").value(Math.round(POOL.getAvgQueueWaitMillis() * 1000) / 1000.0)
+                .endObject();
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
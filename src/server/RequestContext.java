@@ -0,0 +1,238 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything a handler wants to know about the request, parsed at most once:
+ * cookies, query string, form body and the caller's session. Each part is
+ * parsed on first use with plain index scans (no regex splits) and decoded
+ * only when it actually contains escapes.
+ *
+ * Path parameters like {id} come from the route the {@link Router} matched.
+ *
+ * Use {@link #of(HttpExchange)} rather than the constructor. On JDK 17
+ * HttpExchange attributes are shared by every exchange of a context, so the
+ * context is cached per handling thread and keyed on the exchange instead.
+ *
+ * It also collects the request's stage timings (body parsing, session lookup
+ * and whatever the handler marks with {@link #time}). They go out in the
+ * Server-Timing header and into the slow request log.
+ */
+public final class RequestContext {
+    private static final String SESSION_COOKIE = "AUTH_SESSION";
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+    private static final int MAX_STAGES = 16;
+
+    private final HttpExchange exchange;
+    private Map<String, String> cookies;
+    private Map<String, String> query;
+    private Map<String, String> form;
+    private Session session;
+    private boolean sessionLoaded;
+    private Router.Route route;
+
+    private final long startNanos = System.nanoTime();
+    private final String[] stageNames = new String[MAX_STAGES];
+    private final long[] stageNanos = new long[MAX_STAGES];
+    private int stageCount;
+
+    private RequestContext(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    public static RequestContext of(HttpExchange ex) {
+        RequestContext ctx = CURRENT.get();
+        if (ctx == null || ctx.exchange != ex) {
+            ctx = new RequestContext(ex);
+            CURRENT.set(ctx);
+        }
+        return ctx;
+    }
+
+    public HttpExchange getExchange() {
+        return exchange;
+    }
+
+    public String cookie(String name) {
+        if (cookies == null) {
+            cookies = parseCookies(exchange.getRequestHeaders().getFirst("Cookie"));
+        }
+        return cookies.get(name);
+    }
+
+    public String getSessionId() {
+        return cookie(SESSION_COOKIE);
+    }
+
+    /** The caller's live session, or null for guests; looked up once per request. */
+    public Session session() {
+        if (!sessionLoaded) {
+            long start = System.nanoTime();
+            session = SessionStore.get(getSessionId());
+            sessionLoaded = true;
+            time("session", start);
+        }
+        return session;
+    }
+
+    void bind(Router.Route route) {
+        this.route = route;
+    }
+
+    /** A {name} segment of the matched route pattern, e.g. pathParam("id") for /admin/orders/{id}/status. */
+    public String pathParam(String name) {
+        return route == null ? null : route.param(exchange.getRequestURI().getPath(), name);
+    }
+
+    public Map<String, String> queryParams() {
+        if (query == null) {
+            query = parseForm(exchange.getRequestURI().getRawQuery());
+        }
+        return query;
+    }
+
+    public String query(String name) {
+        return queryParams().get(name);
+    }
+
+    /** Integer query parameter; throws NumberFormatException if present but not a number. */
+    public int queryInt(String name, int defaultValue) {
+        String v = query(name);
+        return v == null ? defaultValue : Integer.parseInt(v);
+    }
+
+    /** The url-encoded request body. Reads the body the first time it is called. */
+    public Map<String, String> formParams() throws IOException {
+        if (form == null) {
+            long start = System.nanoTime();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            form = parseForm(new String(body, StandardCharsets.UTF_8));
+            time("parse", start);
+        }
+        return form;
+    }
+
+    public String form(String name) throws IOException {
+        return formParams().get(name);
+    }
+
+    public String clientIp() {
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    // --- Timing ---
+
+    /** Adds the time since startNanos (a System.nanoTime() value) to a stage; repeats of a stage add up. */
+    public void time(String stage, long startNanos) {
+        long took = System.nanoTime() - startNanos;
+        for (int i = 0; i < stageCount; i++) {
+            if (stageNames[i].equals(stage)) {
+                stageNanos[i] += took;
+                return;
+            }
+        }
+        if (stageCount < MAX_STAGES) {
+            stageNames[stageCount] = stage;
+            stageNanos[stageCount++] = took;
+        }
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /** The stages so far plus the total, as a Server-Timing header value: "parse;dur=0.12, total;dur=3.4". */
+    public String serverTiming() {
+        StringBuilder sb = new StringBuilder(24 * (stageCount + 1));
+        for (int i = 0; i < stageCount; i++) {
+            appendTiming(sb, stageNames[i], stageNanos[i]).append(", ");
+        }
+        return appendTiming(sb, "total", elapsedNanos()).toString();
+    }
+
+    private static StringBuilder appendTiming(StringBuilder sb, String name, long nanos) {
+        // Milliseconds with microsecond precision
+        long micros = nanos / 1000;
+        sb.append(name).append(";dur=").append(micros / 1000).append('.');
+        long frac = micros % 1000;
+        if (frac < 100) sb.append('0');
+        if (frac < 10) sb.append('0');
+        return sb.append(frac);
+    }
+
+    // --- Parsing ---
+
+    static Map<String, String> parseCookies(String header) {
+        if (header == null || header.isEmpty()) return Collections.emptyMap();
+        Map<String, String> map = new HashMap<>(8);
+        int len = header.length();
+        int start = 0;
+        while (start < len) {
+            int end = header.indexOf(';', start);
+            if (end < 0) end = len;
+            int eq = header.indexOf('=', start);
+            if (eq > start && eq < end) {
+                String name = header.substring(trimStart(header, start, eq), trimEnd(header, start, eq));
+                int vs = trimStart(header, eq + 1, end);
+                int ve = trimEnd(header, vs, end);
+                if (ve - vs >= 2 && header.charAt(vs) == '"' && header.charAt(ve - 1) == '"') {
+                    vs++;
+                    ve--;
+                }
+                // First one wins, like browsers send the most specific path first
+                map.putIfAbsent(name, header.substring(vs, ve));
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+
+    /** Parses a=1&b=2 style data. Pairs without '=' are ignored; the last duplicate wins. */
+    static Map<String, String> parseForm(String data) {
+        if (data == null || data.isEmpty()) return Collections.emptyMap();
+        Map<String, String> map = new HashMap<>(16);
+        int len = data.length();
+        int start = 0;
+        while (start < len) {
+            int end = data.indexOf('&', start);
+            if (end < 0) end = len;
+            int eq = data.indexOf('=', start);
+            if (eq >= start && eq < end) {
+                map.put(decode(data, start, eq), decode(data, eq + 1, end));
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+
+    private static String decode(String s, int from, int to) {
+        String raw = s.substring(from, to);
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                try {
+                    return URLDecoder.decode(raw, StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return raw;
+                }
+            }
+        }
+        return raw;
+    }
+
+    private static int trimStart(String s, int from, int to) {
+        while (from < to && s.charAt(from) == ' ') from++;
+        return from;
+    }
+
+    private static int trimEnd(String s, int from, int to) {
+        while (to > from && s.charAt(to - 1) == ' ') to--;
+        return to;
+    }
+}
@@ -0,0 +1,122 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import server.model.Log;
+
+/**
+ * Picks the executor HttpServer runs requests on. Chosen at startup with
+ * -Dcookiehaven.executor:
+ *   platform   - bounded pool of platform threads (default)
+ *   virtual    - one virtual thread per request (needs JDK 21+, falls back to platform)
+ *   dispatcher - run on the HttpServer dispatcher thread, like setExecutor(null)
+ *
+ * Pool sizing: -Dcookiehaven.executor.threads, -Dcookiehaven.executor.queue.
+ * BCrypt has its own pool and admission limits in {@link PasswordHasher}.
+ *
+ * A full queue turns work away instead of running it on the submitting
+ * thread: a request the request pool can't take gets a 503 with
+ * Retry-After. The dispatcher only writes the refusal, see {@link #shedWhenBusy}.
+ */
+public class RequestExecutors {
+    private static final Log LOG = Log.get(RequestExecutors.class);
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final List<MeteredExecutor> ALL = new CopyOnWriteArrayList<>();
+    // Set while the dispatcher runs a request the full pool turned away
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    public static MeteredExecutor createRequestExecutor() {
+        String mode = System.getProperty("cookiehaven.executor", "platform");
+        switch (mode) {
+            case "dispatcher":
+                return null;
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return register(new MeteredExecutor("requests-virtual", virtual));
+                }
+                LOG.warn("Virtual threads need JDK 21+, using the platform pool instead");
+                return requestPool();
+            default:
+                return requestPool();
+        }
+    }
+
+    private static MeteredExecutor requestPool() {
+        return boundedPool("requests",
+                Integer.getInteger("cookiehaven.executor.threads", CORES * 8),
+                Integer.getInteger("cookiehaven.executor.queue", 1000),
+                (task, executor) -> {
+                    // HttpServer drops tasks its executor throws out without answering, so run it
+                    // here with SHEDDING set; shedWhenBusy then only writes a 503
+                    SHEDDING.set(Boolean.TRUE);
+                    try {
+                        task.run();
+                    } finally {
+                        SHEDDING.remove();
+                    }
+                });
+    }
+
+    /** Front handler wrapper: answers 503 straight away for requests the full request pool turned away. */
+    public static HttpHandler shedWhenBusy(HttpHandler handler) {
+        return ex -> {
+            if (SHEDDING.get() == null) {
+                handler.handle(ex);
+                return;
+            }
+            refuse(ex);
+        };
+    }
+
+    private static void refuse(HttpExchange ex) {
+        try {
+            ex.getResponseHeaders().set("Retry-After", "1");
+            ex.sendResponseHeaders(503, -1);
+        } catch (IOException e) {
+            // Client already gone
+        } finally {
+            ex.close();
+        }
+    }
+
+    public static List<MeteredExecutor> all() {
+        return ALL;
+    }
+
+    private static MeteredExecutor boundedPool(String name, int threads, int queue, RejectedExecutionHandler whenFull) {
+        MeteredExecutor[] self = new MeteredExecutor[1];
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)),
+                r -> {
+                    Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (task, executor) -> {
+                    self[0].countRejected();
+                    whenFull.rejectedExecution(task, executor);
+                });
+        pool.allowCoreThreadTimeOut(true);
+        self[0] = register(new MeteredExecutor(name, pool));
+        return self[0];
+    }
+
+    static MeteredExecutor register(MeteredExecutor executor) {
+        ALL.add(executor);
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * The only handler the HttpServer sees; every request goes through one lookup
+ * here. Routes are registered once at startup:
+ *
+ * <pre>
+ * router.add("GET", "/admin/orders/api", admin::ordersApi);                  // exact
+ * router.add("POST", "/admin/orders/{id}/status", admin::updateOrderStatus); // parameter
+ * router.add("GET", "/*", new StaticFileHandler());                          // everything else
+ * </pre>
+ *
+ * Patterns without parameters go in a hash map, so most requests cost one
+ * lookup. Everything else is matched one path segment at a time in a trie.
+ * At each segment a literal wins over a {name} parameter, and a parameter
+ * wins over a trailing /*. Handlers read parameters with
+ * {@link RequestContext#pathParam}.
+ *
+ * HEAD is answered by the GET handler unless a route registers its own; the
+ * body is dropped in {@link TimedExchange}. A known path with no handler for
+ * the method gets a 405 with an Allow header. An unknown path gets a 404. Each route is wrapped in an
+ * {@link InstrumentedHandler} labelled with its pattern, which also makes
+ * sure the exchange is closed.
+ */
+public class Router implements HttpHandler {
+    private final Map<String, Route> exact = new HashMap<>();
+    private final Node root = new Node();
+    private final HttpHandler notFound = new InstrumentedHandler("unmatched", ex -> ex.sendResponseHeaders(404, -1));
+
+    /** A registered pattern and its handlers by method. */
+    static final class Route {
+        final String pattern;
+        // Segment position of each parameter, in pattern order
+        final Map<String, Integer> params = new LinkedHashMap<>();
+        final Map<String, HttpHandler> byMethod = new HashMap<>();
+        HttpHandler notAllowed;
+
+        Route(String pattern, List<String> segments) {
+            this.pattern = pattern;
+            for (int i = 0; i < segments.size(); i++) {
+                String s = segments.get(i);
+                if (isParam(s)) params.put(s.substring(1, s.length() - 1), i);
+            }
+        }
+
+        /** The named parameter's segment of path, or null if this route has no such parameter. */
+        String param(String path, String name) {
+            Integer index = params.get(name);
+            if (index == null) return null;
+            int from = 1;
+            for (int i = 0; i < index; i++) from = path.indexOf('/', from) + 1;
+            int end = path.indexOf('/', from);
+            return path.substring(from, end < 0 ? path.length() : end);
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node param;
+        String paramName;
+        Route route;
+        Route wildcard;
+    }
+
+    public Router add(String methods, String pattern, HttpHandler handler) {
+        return add(methods, pattern, handler, h -> h);
+    }
+
+    /**
+     * methods is "GET", "POST" or a list like "GET,POST". dispatch wraps the
+     * instrumented handler, e.g. to run it on another pool.
+     */
+    public Router add(String methods, String pattern, HttpHandler handler, UnaryOperator<HttpHandler> dispatch) {
+        Route route = route(pattern);
+        HttpHandler bound = ex -> {
+            RequestContext.of(ex).bind(route);
+            handler.handle(ex);
+        };
+        HttpHandler endpoint = dispatch.apply(new InstrumentedHandler(pattern, bound));
+        for (String method : methods.split(",")) {
+            if (route.byMethod.putIfAbsent(method.trim().toUpperCase(), endpoint) != null) {
+                throw new IllegalStateException(method + " " + pattern + " is already routed");
+            }
+        }
+        TreeSet<String> methodsAllowed = new TreeSet<>(route.byMethod.keySet());
+        if (methodsAllowed.contains("GET")) methodsAllowed.add("HEAD");
+        String allow = String.join(", ", methodsAllowed);
+        route.notAllowed = new InstrumentedHandler(pattern, ex -> {
+            ex.getResponseHeaders().set("Allow", allow);
+            ex.sendResponseHeaders(405, -1);
+        });
+        return this;
+    }
+
+    @Override
+    public void handle(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        Route route = exact.get(path);
+        if (route == null) route = match(root, path, 1);
+        if (route == null) {
+            notFound.handle(ex);
+            return;
+        }
+        HttpHandler handler = route.byMethod.get(ex.getRequestMethod());
+        if (handler == null && ex.getRequestMethod().equals("HEAD")) handler = route.byMethod.get("GET");
+        (handler != null ? handler : route.notAllowed).handle(ex);
+    }
+
+    /** Literal segment first, then a parameter, then a wildcard, backing off a level when a branch dead-ends. */
+    private static Route match(Node node, String path, int from) {
+        if (from >= path.length()) return node.route != null ? node.route : node.wildcard;
+        int end = path.indexOf('/', from);
+        if (end < 0) end = path.length();
+        Route found = null;
+        Node child = node.children.get(path.substring(from, end));
+        if (child != null) found = match(child, path, end + 1);
+        if (found == null && node.param != null && end > from) found = match(node.param, path, end + 1);
+        return found != null ? found : node.wildcard;
+    }
+
+    private Route route(String pattern) {
+        if (!pattern.startsWith("/")) throw new IllegalArgumentException("Patterns start with /: " + pattern);
+        List<String> segments = new ArrayList<>();
+        for (String s : pattern.substring(1).split("/")) {
+            if (!s.isEmpty()) segments.add(s);
+        }
+        boolean wildcard = !segments.isEmpty() && segments.get(segments.size() - 1).equals("*");
+        if (wildcard) segments.remove(segments.size() - 1);
+
+        Node node = root;
+        for (String s : segments) {
+            if (s.contains("*")) throw new IllegalArgumentException("* is only allowed at the end: " + pattern);
+            if (isParam(s)) {
+                String name = s.substring(1, s.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException(pattern + " names {" + name + "} where another route has {" + node.paramName + "}");
+                }
+                node = node.param;
+            } else {
+                node = node.children.computeIfAbsent(s, k -> new Node());
+            }
+        }
+
+        Route existing = wildcard ? node.wildcard : node.route;
+        if (existing != null) return existing;
+        Route route = new Route(pattern, segments);
+        if (wildcard) {
+            node.wildcard = route;
+        } else {
+            node.route = route;
+            if (route.params.isEmpty()) exact.put("/" + String.join("/", segments), route);
+        }
+        return route;
+    }
+
+    private static boolean isParam(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+}
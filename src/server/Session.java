@@ -0,0 +1,61 @@
+package server;
+
+import server.model.ShoppingCart;
+
+/** A logged-in customer: who they are and what is in their cart. */
+public class Session {
+    // The cookie value; only known for sessions created since startup
+    private final String id;
+    // What the store is keyed by, see SessionStore.keyFor
+    private final String key;
+    private final String username;
+    private final long createdAt;
+    private volatile long lastAccess;
+    private volatile ShoppingCart cart;
+
+    // What the last snapshot wrote, to skip sessions that have not changed since
+    private long savedAccess = -1;
+    private ShoppingCart savedCart;
+    private int savedCartVersion;
+
+    Session(String id, String key, String username, long createdAt, long lastAccess, ShoppingCart cart) {
+        this.id = id;
+        this.key = key;
+        this.username = username;
+        this.createdAt = createdAt;
+        this.lastAccess = lastAccess;
+        this.cart = cart;
+    }
+
+    public String getId() { return id; }
+    String getKey() { return key; }
+    public String getUsername() { return username; }
+    public long getCreatedAt() { return createdAt; }
+    public long getLastAccess() { return lastAccess; }
+    public ShoppingCart getCart() { return cart; }
+
+    /** Starts a fresh cart, e.g. after checkout. */
+    public void clearCart() {
+        cart = new ShoppingCart();
+    }
+
+    void touch(long now) {
+        lastAccess = now;
+    }
+
+    /**
+     * True for a new session, a new or changed cart, or a last access that has
+     * moved by at least accessSlack since the last snapshot. Merely being used
+     * doesn't count, or every active shard would be rewritten every cycle.
+     */
+    synchronized boolean isDirty(long accessSlack) {
+        ShoppingCart c = cart;
+        return c != savedCart || c.getVersion() != savedCartVersion || lastAccess - savedAccess >= accessSlack;
+    }
+
+    synchronized void markSaved(long access, ShoppingCart c, int cartVersion) {
+        savedAccess = access;
+        savedCart = c;
+        savedCartVersion = cartVersion;
+    }
+}
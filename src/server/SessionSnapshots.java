@@ -0,0 +1,120 @@
+package server;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import server.model.CartItem;
+import server.model.ShoppingCart;
+
+/**
+ * Binary session snapshots, one file per {@link SessionStore} segment
+ * (sessions/shard-N.bin by default, see -Dcookiehaven.session.dir). A shard is
+ * only rewritten when one of its sessions changed or went away, and every
+ * rewrite goes through a temp file that is fsynced and moved into place, so a
+ * crash leaves either the old shard or the new one.
+ *
+ * Layout: magic, format, session count, then for each session its key (the
+ * hash of its id, see {@link SessionStore#keyFor}; raw ids never reach disk),
+ * username, created and last access times and the cart items
+ * (product id, name, price in sen, quantity).
+ */
+final class SessionSnapshots {
+    private static final int MAGIC = 0x43485353; // "CHSS"
+    private static final int FORMAT = 3;
+    private static final File DIR = new File(System.getProperty("cookiehaven.session.dir", "sessions"));
+
+    private SessionSnapshots() {
+    }
+
+    /** Writes a whole shard and marks its sessions as saved. */
+    static void write(int shard, List<Session> sessions) throws IOException {
+        if (!DIR.isDirectory() && !DIR.mkdirs()) {
+            throw new IOException("Cannot create " + DIR);
+        }
+        File target = fileFor(shard);
+        File tmp = new File(DIR, target.getName() + ".tmp");
+
+        // Capture what we write per session so later changes still count as dirty
+        long[] accessed = new long[sessions.size()];
+        ShoppingCart[] carts = new ShoppingCart[sessions.size()];
+        int[] versions = new int[sessions.size()];
+
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(sessions.size());
+            for (int i = 0; i < sessions.size(); i++) {
+                Session s = sessions.get(i);
+                accessed[i] = s.getLastAccess();
+                carts[i] = s.getCart();
+                versions[i] = carts[i].getVersion();
+                List<CartItem> items = carts[i].getItems();
+
+                out.writeUTF(s.getKey());
+                out.writeUTF(s.getUsername());
+                out.writeLong(s.getCreatedAt());
+                out.writeLong(accessed[i]);
+                out.writeInt(items.size());
+                for (CartItem item : items) {
+                    out.writeUTF(item.getProductId());
+                    out.writeUTF(item.getProductName());
+                    out.writeLong(item.getPriceCents());
+                    out.writeInt(item.getQuantity());
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (int i = 0; i < sessions.size(); i++) {
+            sessions.get(i).markSaved(accessed[i], carts[i], versions[i]);
+        }
+    }
+
+    /** Reads a shard back; an absent shard is just empty. */
+    static List<Session> read(int shard) throws IOException {
+        File file = fileFor(shard);
+        List<Session> sessions = new ArrayList<>();
+        if (!file.exists()) return sessions;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            int format = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (format != FORMAT) {
+                throw new IOException("Not a session snapshot: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String username = in.readUTF();
+                long created = in.readLong();
+                long lastAccess = in.readLong();
+                ShoppingCart cart = new ShoppingCart();
+                int items = in.readInt();
+                for (int j = 0; j < items; j++) {
+                    String productId = in.readUTF();
+                    String name = in.readUTF();
+                    long price = in.readLong();
+                    cart.addItem(productId, name, price, in.readInt());
+                }
+                Session s = new Session(null, key, username, created, lastAccess, cart);
+                s.markSaved(lastAccess, cart, cart.getVersion());
+                sessions.add(s);
+            }
+        }
+        return sessions;
+    }
+
+    /** A task that reads one shard; lives here so restore workers never wait on SessionStore's class init. */
+    static Callable<List<Session>> reader(int shard) {
+        return () -> read(shard);
+    }
+
+    private static File fileFor(int shard) {
+        return new File(DIR, "shard-" + shard + ".bin");
+    }
+}
@@ -0,0 +1,264 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import server.model.LatencyHistogram;
+import server.model.Log;
+import server.model.Metrics;
+import server.model.ShoppingCart;
+
+/**
+ * The one place sessions live. Sessions expire after an idle period (sliding
+ * TTL) and after an absolute lifetime, and the store never holds more than a
+ * fixed number of them, evicting the least recently used first.
+ *
+ * The store is split into segments, each an access-ordered LinkedHashMap under
+ * its own lock. Access order means the least recently used session is always
+ * at the head, so expiry only ever looks at the head: lookups check the entry
+ * they touch, and a background sweep pops idle entries off each head until it
+ * reaches a live one. Nothing ever scans the whole store.
+ *
+ * Sessions survive restarts: each segment is snapshotted to its own binary
+ * shard (see {@link SessionSnapshots}) whenever it has changed, every few
+ * seconds and on shutdown. A change is a new or removed session or a cart
+ * change; last-access times only count once they have moved by a tenth of
+ * the idle timeout. All shards are read back in parallel at startup.
+ * Segments are keyed by a SHA-256 of the session id rather than the id itself,
+ * so a shard on disk holds nothing that can be replayed as a cookie.
+ *
+ * Settings: -Dcookiehaven.session.idleMinutes (default 30),
+ * -Dcookiehaven.session.maxHours (default 12), -Dcookiehaven.session.max (default 100000),
+ * -Dcookiehaven.session.snapshotSec (default 15).
+ */
+public class SessionStore {
+    private static final Log LOG = Log.get(SessionStore.class);
+    private static final int SEGMENTS = 16;
+    private static final long IDLE_MS = TimeUnit.MINUTES.toMillis(Long.getLong("cookiehaven.session.idleMinutes", 30));
+    private static final long MAX_LIFETIME_MS = TimeUnit.HOURS.toMillis(Long.getLong("cookiehaven.session.maxHours", 12));
+    private static final int MAX_SESSIONS = Integer.getInteger("cookiehaven.session.max", 100_000);
+    private static final long SNAPSHOT_SEC = Long.getLong("cookiehaven.session.snapshotSec", 15);
+    // Last access only has to be roughly right on disk; after a restart a session can expire this much early
+    private static final long ACCESS_SLACK_MS = IDLE_MS / 10;
+
+    private static final Segment[] segments = new Segment[SEGMENTS];
+
+    private static final LongAdder created = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder expired = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+    private static final LatencyHistogram SNAPSHOT_TIME = Metrics.stage("session_snapshot");
+
+    static {
+        int perSegment = Math.max(1, MAX_SESSIONS / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(SessionStore::sweep, 30, 30, TimeUnit.SECONDS);
+        Metrics.gauge("cookiehaven_sessions", "Live sessions", SessionStore::size);
+
+        restore();
+        sweeper.scheduleWithFixedDelay(SessionStore::snapshot, SNAPSHOT_SEC, SNAPSHOT_SEC, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(SessionStore::snapshot, "session-snapshot"));
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Session> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        // Set when a session leaves, since that never shows up as a dirty session
+        private boolean removals;
+
+        Segment(int capacity) {
+            super(64, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+            if (size() <= capacity) return false;
+            removals = true;
+            if (isExpired(eldest.getValue(), System.currentTimeMillis())) {
+                expired.increment();
+            } else {
+                evicted.increment();
+            }
+            return true;
+        }
+    }
+
+    public static Session create(String username) {
+        long now = System.currentTimeMillis();
+        String id = UUID.randomUUID().toString();
+        Session s = new Session(id, keyFor(id), username, now, now, new ShoppingCart());
+        put(s);
+        created.increment();
+        return s;
+    }
+
+    /** Looks up a live session and slides its idle timeout. Returns null if missing or expired. */
+    public static Session get(String id) {
+        if (id == null) return null;
+        long now = System.currentTimeMillis();
+        String key = keyFor(id);
+        Segment seg = segmentFor(key);
+        synchronized (seg) {
+            Session s = seg.get(key);
+            if (s == null) {
+                misses.increment();
+                return null;
+            }
+            if (isExpired(s, now)) {
+                seg.remove(key);
+                seg.removals = true;
+                expired.increment();
+                misses.increment();
+                return null;
+            }
+            s.touch(now);
+            hits.increment();
+            return s;
+        }
+    }
+
+    public static void remove(String id) {
+        if (id == null) return;
+        String key = keyFor(id);
+        Segment seg = segmentFor(key);
+        synchronized (seg) {
+            if (seg.remove(key) != null) seg.removals = true;
+        }
+    }
+
+    static void put(Session s) {
+        Segment seg = segmentFor(s.getKey());
+        synchronized (seg) {
+            seg.put(s.getKey(), s);
+        }
+    }
+
+    public static int size() {
+        int n = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                n += seg.size();
+            }
+        }
+        return n;
+    }
+
+    /** Drops idle sessions from the head of each segment; stops at the first one still in use. */
+    static void sweep() {
+        long now = System.currentTimeMillis();
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                Iterator<Session> it = seg.values().iterator();
+                while (it.hasNext()) {
+                    Session s = it.next();
+                    if (now - s.getLastAccess() < IDLE_MS) break;
+                    it.remove();
+                    seg.removals = true;
+                    expired.increment();
+                }
+            }
+        }
+    }
+
+    /** Rewrites the shard of every segment that changed since the last snapshot. */
+    static synchronized void snapshot() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = segments[i];
+            List<Session> sessions;
+            synchronized (seg) {
+                boolean dirty = seg.removals;
+                for (Iterator<Session> it = seg.values().iterator(); !dirty && it.hasNext(); ) {
+                    dirty = it.next().isDirty(ACCESS_SLACK_MS);
+                }
+                if (!dirty) continue;
+                // Least recently used first, so a restore rebuilds the same LRU order
+                sessions = new ArrayList<>(seg.values());
+                seg.removals = false;
+            }
+            long start = System.nanoTime();
+            try {
+                SessionSnapshots.write(i, sessions);
+                SNAPSHOT_TIME.recordSince(start);
+            } catch (IOException e) {
+                synchronized (seg) {
+                    seg.removals = true;
+                }
+                LOG.error("Error writing session snapshot", e, "segment", i);
+            }
+        }
+    }
+
+    private static void restore() {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(SEGMENTS, Runtime.getRuntime().availableProcessors()));
+        // Workers only read and decode; they must not touch this class while it is still initialising
+        List<Future<List<Session>>> loads = new ArrayList<>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            loads.add(pool.submit(SessionSnapshots.reader(i)));
+        }
+        long now = System.currentTimeMillis();
+        int total = 0;
+        for (int i = 0; i < loads.size(); i++) {
+            try {
+                for (Session s : loads.get(i).get()) {
+                    if (isExpired(s, now)) continue;
+                    put(s);
+                    total++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                LOG.error("Error restoring session snapshot", e.getCause(), "segment", i);
+            }
+        }
+        pool.shutdown();
+        LOG.info("Restored sessions", "sessions", total, "ms", System.currentTimeMillis() - start);
+    }
+
+    public static void writeStats(JsonWriter w) throws IOException {
+        w.beginObject()
+                .field("active", size())
+                .field("created", created.sum())
+                .field("hits", hits.sum())
+                .field("misses", misses.sum())
+                .field("expired", expired.sum())
+                .field("evicted", evicted.sum())
+                .field("max", MAX_SESSIONS)
+                .endObject();
+    }
+
+    private static boolean isExpired(Session s, long now) {
+        return now - s.getLastAccess() >= IDLE_MS || now - s.getCreatedAt() >= MAX_LIFETIME_MS;
+    }
+
+    /** SHA-256 of the session id, base64url; like a token store, only the hash is kept. */
+    static String keyFor(String id) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Segment segmentFor(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import server.model.Metrics;
+
+/**
+ * The most recent requests that took longer than a threshold, with their
+ * stage breakdown, for the admin "Slow requests" page.
+ *
+ * A fixed ring: recording claims a slot with one atomic increment and
+ * overwrites whatever was there, so it never blocks and never grows. Only
+ * slow requests get here, so fast ones pay just the threshold check.
+ *
+ * Settings: -Dcookiehaven.slow.thresholdMs (default 500), -Dcookiehaven.slow.capacity (default 200).
+ */
+public final class SlowRequests {
+    private static final long THRESHOLD_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("cookiehaven.slow.thresholdMs", 500));
+    private static final int CAPACITY = Math.max(1, Integer.getInteger("cookiehaven.slow.capacity", 200));
+
+    private static final AtomicReferenceArray<Entry> RING = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong NEXT = new AtomicLong();
+    private static final LongAdder SLOW = Metrics.counter("cookiehaven_http_slow_requests_total",
+            "Requests slower than cookiehaven.slow.thresholdMs");
+
+    public static final class Entry {
+        final long timeMillis;
+        final String method;
+        final String path;
+        final String route;
+        final int status;
+        final long durationNanos;
+        final String timing;
+
+        Entry(long timeMillis, String method, String path, String route, int status, long durationNanos, String timing) {
+            this.timeMillis = timeMillis;
+            this.method = method;
+            this.path = path;
+            this.route = route;
+            this.status = status;
+            this.durationNanos = durationNanos;
+            this.timing = timing;
+        }
+    }
+
+    private SlowRequests() {
+    }
+
+    static void offer(RequestContext ctx, String route, int status, long durationNanos) {
+        if (durationNanos < THRESHOLD_NANOS) return;
+        SLOW.increment();
+        // Path only: query strings can carry things like search terms we don't want to keep
+        Entry e = new Entry(System.currentTimeMillis(), ctx.getExchange().getRequestMethod(),
+                ctx.getExchange().getRequestURI().getPath(), route, status, durationNanos, ctx.serverTiming());
+        RING.set((int) (NEXT.getAndIncrement() % CAPACITY), e);
+    }
+
+    /** Newest first. */
+    static List<Entry> recent() {
+        long end = NEXT.get();
+        List<Entry> out = new ArrayList<>(CAPACITY);
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY; i--) {
+            Entry e = RING.get((int) (i % CAPACITY));
+            if (e != null) out.add(e);
+        }
+        return out;
+    }
+
+    static void writeJson(JsonWriter w) throws IOException {
+        w.beginObject()
+                .field("thresholdMs", TimeUnit.NANOSECONDS.toMillis(THRESHOLD_NANOS))
+                .field("capacity", CAPACITY)
+                .field("total", SLOW.sum())
+                .name("requests").beginArray();
+        for (Entry e : recent()) {
+            w.beginObject()
+                    .field("time", e.timeMillis)
+                    .field("method", e.method)
+                    .field("path", e.path)
+                    .field("route", e.route)
+                    .field("status", e.status)
+                    .name("durationMs").value(Math.round(e.durationNanos / 1000.0) / 1000.0)
+                    .field("timing", e.timing)
+                    .endObject();
+        }
+        w.endArray().endObject();
+    }
+}
@@ -0,0 +1,352 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import server.model.Log;
+
+/**
+ * Everything under web/ held in memory, with gzip and deflate variants and a
+ * strong ETag computed once at load time. Each coding is a different body, so
+ * the gzip and deflate variants get their own ETag ("...-gz", "...-df"). With -Dcookiehaven.static.watch=true
+ * a background thread reloads files that change on disk.
+ *
+ * Files bigger than -Dcookiehaven.static.maxCachedBytes (default 256 KB) are
+ * not held on the heap; they are streamed from a FileChannel per request and
+ * support single byte-range requests.
+ */
+public class StaticAssetCache {
+    private static final Log LOG = Log.get(StaticAssetCache.class);
+    private static final String ROOT = "web";
+    private static final long MAX_CACHED_BYTES = Long.getLong("cookiehaven.static.maxCachedBytes", 256 * 1024);
+    private static final int TRANSFER_CHUNK = 512 * 1024;
+    private static final Map<String, Asset> ASSETS = new ConcurrentHashMap<>();
+
+    static {
+        loadAll();
+        if (Boolean.getBoolean("cookiehaven.static.watch")) {
+            startWatcher();
+        }
+    }
+
+    public static class Asset {
+        final byte[] identity;
+        final byte[] gzip;
+        final byte[] deflate;
+        final String etag;
+        final String contentType;
+        // Set instead of the byte arrays for files streamed from disk
+        final Path file;
+        final long length;
+
+        Asset(byte[] identity, byte[] gzip, byte[] deflate, String etag, String contentType) {
+            this(identity, gzip, deflate, etag, contentType, null, identity.length);
+        }
+
+        Asset(Path file, long length, String etag, String contentType) {
+            this(null, null, null, etag, contentType, file, length);
+        }
+
+        private Asset(byte[] identity, byte[] gzip, byte[] deflate, String etag, String contentType,
+                      Path file, long length) {
+            this.identity = identity;
+            this.gzip = gzip;
+            this.deflate = deflate;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.file = file;
+            this.length = length;
+        }
+
+        public byte[] getBytes() throws IOException {
+            return identity != null ? identity : Files.readAllBytes(file);
+        }
+    }
+
+    /** Looks up a URL path such as "/order.html". */
+    public static Asset get(String urlPath) {
+        return ASSETS.get(urlPath);
+    }
+
+    /**
+     * Writes the asset to the exchange, picking the smallest encoding the
+     * client accepts and answering 304 when it already has that body.
+     */
+    public static void send(HttpExchange ex, Asset asset) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", asset.contentType);
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        ex.getResponseHeaders().set("Vary", "Accept-Encoding");
+
+        byte[] body = asset.identity;
+        String etag = asset.etag;
+        String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        if (asset.gzip != null && accepts(accept, "gzip")) {
+            body = asset.gzip;
+            etag = variantTag(asset.etag, "gz");
+            ex.getResponseHeaders().set("Content-Encoding", "gzip");
+        } else if (asset.deflate != null && accepts(accept, "deflate")) {
+            body = asset.deflate;
+            etag = variantTag(asset.etag, "df");
+            ex.getResponseHeaders().set("Content-Encoding", "deflate");
+        }
+        ex.getResponseHeaders().set("ETag", etag);
+
+        if (etagMatches(ex.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            ex.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        if (asset.file != null) {
+            sendFile(ex, asset);
+            return;
+        }
+
+        // For HEAD, TimedExchange turns the length into Content-Length and drops the body
+        ex.sendResponseHeaders(200, body.length);
+        ex.getResponseBody().write(body);
+    }
+
+    /** "abc" -> "abc-gz" */
+    private static String variantTag(String etag, String suffix) {
+        return etag.substring(0, etag.length() - 1) + "-" + suffix + "\"";
+    }
+
+    // Streamed files are only ever sent as identity, so If-Range compares against the plain tag
+    private static void sendFile(HttpExchange ex, Asset asset) throws IOException {
+        ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+        long start = 0;
+        long end = asset.length - 1;
+        int status = 200;
+
+        String range = ex.getRequestHeaders().getFirst("Range");
+        String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(asset.etag))) {
+            long[] r = parseRange(range, asset.length);
+            if (r == null) {
+                ex.getResponseHeaders().set("Content-Range", "bytes */" + asset.length);
+                ex.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (r.length == 2) {
+                start = r[0];
+                end = r[1];
+                status = 206;
+                ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + asset.length);
+            }
+        }
+
+        long count = end - start + 1;
+        if (ex.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            ex.getResponseHeaders().set("Content-Length", String.valueOf(count));
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, count);
+
+        // transferTo moves the bytes through the channel without a file-sized heap copy
+        try (FileChannel ch = FileChannel.open(asset.file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(ex.getResponseBody());
+            long pos = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = ch.transferTo(pos, Math.min(remaining, TRANSFER_CHUNK), out);
+                if (sent <= 0) break;
+                pos += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * Parses a single "bytes=" range. Returns {start, end} for a satisfiable
+     * range, an empty array when the header should be ignored (multiple or
+     * malformed ranges) and null when the range cannot be satisfied.
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return new long[0];
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+            }
+            if (start >= length || start > end) return null;
+            return new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        if (ifNoneMatch.trim().equals("*")) return true;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.startsWith("W/")) c = c.substring(2);
+            if (c.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (!tokens[0].trim().equalsIgnoreCase(coding)) continue;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void loadAll() {
+        Path root = Paths.get(ROOT);
+        if (!Files.isDirectory(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(StaticAssetCache::load);
+        } catch (IOException e) {
+            LOG.error("Error walking static assets", e, "dir", ROOT);
+        }
+        LOG.info("Cached static assets", "dir", ROOT, "assets", ASSETS.size());
+    }
+
+    private static void load(Path file) {
+        String urlPath = "/" + Paths.get(ROOT).relativize(file).toString().replace(File.separatorChar, '/');
+        try {
+            String type = getMimeType(urlPath);
+            long size = Files.size(file);
+            if (size > MAX_CACHED_BYTES) {
+                String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(Files.getLastModifiedTime(file).toMillis()) + "\"";
+                ASSETS.put(urlPath, new Asset(file, size, etag, type));
+                return;
+            }
+            byte[] data = Files.readAllBytes(file);
+            byte[] gzip = null;
+            byte[] deflate = null;
+            if (isCompressible(type)) {
+                gzip = smallerOrNull(gzip(data), data);
+                deflate = smallerOrNull(deflate(data), data);
+            }
+            ASSETS.put(urlPath, new Asset(data, gzip, deflate, etag(data), type));
+        } catch (IOException e) {
+            ASSETS.remove(urlPath);
+            LOG.warn("Cannot cache static asset", e, "path", urlPath);
+        }
+    }
+
+    private static void startWatcher() {
+        Thread watcher = new Thread(() -> {
+            try (WatchService ws = FileSystems.getDefault().newWatchService();
+                 Stream<Path> tree = Files.walk(Paths.get(ROOT))) {
+                Map<WatchKey, Path> dirs = new HashMap<>();
+                tree.filter(Files::isDirectory).forEach(dir -> {
+                    try {
+                        dirs.put(dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                    } catch (IOException e) {
+                        LOG.warn("Cannot watch directory", e, "dir", dir);
+                    }
+                });
+                while (true) {
+                    WatchKey key = ws.take();
+                    Path dir = dirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                        Path file = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            ASSETS.remove("/" + Paths.get(ROOT).relativize(file).toString().replace(File.separatorChar, '/'));
+                        } else if (Files.isRegularFile(file)) {
+                            load(file);
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (IOException | InterruptedException e) {
+                LOG.warn("Static asset watcher stopped", e);
+            }
+        }, "static-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    static String getMimeType(String path) {
+        if (path.endsWith(".css")) return "text/css; charset=UTF-8";
+        if (path.endsWith(".js")) return "application/javascript; charset=UTF-8";
+        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
+        if (path.endsWith(".png")) return "image/png";
+        if (path.endsWith(".gif")) return "image/gif";
+        if (path.endsWith(".svg")) return "image/svg+xml";
+        if (path.endsWith(".ico")) return "image/x-icon";
+        return "text/html; charset=UTF-8";
+    }
+
+    private static boolean isCompressible(String type) {
+        return type.startsWith("text/") || type.startsWith("application/javascript") || type.equals("image/svg+xml");
+    }
+
+    private static byte[] smallerOrNull(byte[] compressed, byte[] original) {
+        return compressed.length < original.length ? compressed : null;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bos) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            out.write(data);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bos, deflater)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        return bos.toByteArray();
+    }
+
+    private static String etag(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                        .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
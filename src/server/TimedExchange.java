@@ -0,0 +1,125 @@
+package server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * Passes everything through to the real exchange, except that the request's
+ * Server-Timing header is added just before the response headers go out.
+ * Handlers and JsonWriter can send headers whenever they like and still get
+ * the breakdown.
+ *
+ * For a HEAD request the handler can answer exactly as it would a GET: the
+ * length it announces becomes the Content-Length header and whatever it
+ * writes afterwards is dropped.
+ */
+class TimedExchange extends HttpExchange {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("cookiehaven.serverTiming", "true"));
+
+    private final HttpExchange delegate;
+    private final boolean head;
+
+    TimedExchange(HttpExchange delegate) {
+        this.delegate = delegate;
+        this.head = "HEAD".equals(delegate.getRequestMethod());
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (ENABLED) {
+            delegate.getResponseHeaders().set("Server-Timing", RequestContext.of(this).serverTiming());
+        }
+        if (head) {
+            if (responseLength > 0) delegate.getResponseHeaders().set("Content-Length", Long.toString(responseLength));
+            responseLength = -1;
+        }
+        delegate.sendResponseHeaders(rCode, responseLength);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return delegate.getRequestHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return delegate.getResponseHeaders();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return delegate.getRequestURI();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return delegate.getRequestMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return delegate.getHttpContext();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return delegate.getRequestBody();
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return head ? OutputStream.nullOutputStream() : delegate.getResponseBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return delegate.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return delegate.getResponseCode();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return delegate.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return delegate.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return delegate.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        delegate.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        delegate.setStreams(i, o);
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return delegate.getPrincipal();
+    }
+}
@@ -7,13 +7,13 @@ public class CartItem implements Serializable {
 
     private String productId;
     private String productName;
-    private double price;
+    private long priceCents;
     private int quantity;
 
-    public CartItem(String productId, String productName, double price, int quantity) {
+    public CartItem(String productId, String productName, long priceCents, int quantity) {
         this.productId = productId;
         this.productName = productName;
-        this.price = price;
+        this.priceCents = priceCents;
         this.quantity = quantity;
     }
 
@@ -27,8 +27,9 @@ public class CartItem implements Serializable {
         return productName;
     }
 
-    public double getPrice() {
-        return price;
+    /** Unit price in sen, see {@link Money}. */
+    public long getPriceCents() {
+        return priceCents;
     }
 
     public int getQuantity() {
@@ -36,8 +37,8 @@ public class CartItem implements Serializable {
     }
 
     // FIX: This method calculates the total for this specific row (Price * Qty)
-    public double getSubtotal() {
-        return this.price * this.quantity;
+    public long getSubtotalCents() {
+        return Money.times(this.priceCents, this.quantity);
     }
 
     // --- SETTERS (Optional, but useful) ---
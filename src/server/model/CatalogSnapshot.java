@@ -0,0 +1,59 @@
+package server.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import server.JsonWriter;
+
+/**
+ * Immutable, pre-encoded JSON of the whole product catalog. ProductDatabase
+ * builds a new one after each mutation and swaps it in, so readers just write
+ * the bytes out.
+ */
+public class CatalogSnapshot {
+    // Distinguishes versions across restarts so old ETags never match new content
+    private static final String EPOCH = Long.toHexString(System.currentTimeMillis());
+
+    private final long version;
+    private final byte[] json;
+    private final String etag;
+
+    CatalogSnapshot(long version, Collection<Product> products) {
+        this.version = version;
+        this.json = encode(products);
+        this.etag = "\"" + EPOCH + "-" + version + "\"";
+    }
+
+    public long getVersion() { return version; }
+    public byte[] getJson() { return json; }
+    public String getEtag() { return etag; }
+
+    private static byte[] encode(Collection<Product> products) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * products.size() + 2);
+        try (JsonWriter w = JsonWriter.to(bytes)) {
+            w.beginArray();
+            for (Product p : products) {
+                w.beginObject()
+                        .field("id", orEmpty(p.getId()))
+                        .field("name", orEmpty(p.getName()))
+                        .name("price").money(p.getPriceCents())
+                        .field("stock", p.getStock())
+                        .field("description", orEmpty(p.getDescription()))
+                        .field("ingredients", orEmpty(p.getIngredients()))
+                        .field("allergens", orEmpty(p.getAllergens()))
+                        .endObject();
+            }
+            w.endArray();
+        } catch (IOException e) {
+            // Only a ByteArrayOutputStream underneath
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // The catalog has always sent missing text as "" rather than null
+    private static String orEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,83 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The three numbers on the admin dashboard, maintained on write: orders placed
+ * today (reset when the day rolls over), all-time sales, and the products that
+ * are running low. Reading them never touches the order history.
+ */
+public class DashboardMetrics {
+    public static final int LOW_STOCK_THRESHOLD = 10;
+
+    private static final AtomicReference<DayCounter> today = new AtomicReference<>(new DayCounter(currentDay()));
+    private static final LongAdder totalSalesCents = new LongAdder();
+    private static final Set<String> lowStock = ConcurrentHashMap.newKeySet();
+
+    private static final class DayCounter {
+        final long epochDay;
+        final LongAdder count = new LongAdder();
+
+        DayCounter(long epochDay) {
+            this.epochDay = epochDay;
+        }
+    }
+
+    static void orderAdded(Order o) {
+        totalSalesCents.add(o.getTotalCents());
+        long day = Dates.epochDay(o.getOrderDate().toEpochMilli());
+        DayCounter counter = rollOver(day);
+        if (counter.epochDay == day) counter.count.increment();
+    }
+
+    static void stockChanged(Product p) {
+        if (p.getStock() < LOW_STOCK_THRESHOLD) {
+            lowStock.add(p.getId());
+        } else {
+            lowStock.remove(p.getId());
+        }
+    }
+
+    static void productRemoved(String id) {
+        lowStock.remove(id);
+    }
+
+    public static long getTodayOrders() {
+        long day = currentDay();
+        DayCounter counter = rollOver(day);
+        return counter.epochDay == day ? counter.count.sum() : 0;
+    }
+
+    /** All-time sales in sen. */
+    public static long getTotalSalesCents() {
+        return totalSalesCents.sum();
+    }
+
+    /** Names of products below the threshold, alphabetically. */
+    public static List<String> getLowStockNames() {
+        List<String> names = new ArrayList<>();
+        for (String id : lowStock) {
+            Product p = ProductDatabase.getProductById(id);
+            if (p != null) names.add(p.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /** Moves the counter forward to the given day if it is newer than the current one. */
+    private static DayCounter rollOver(long day) {
+        while (true) {
+            DayCounter cur = today.get();
+            if (cur.epochDay >= day) return cur;
+            DayCounter next = new DayCounter(day);
+            if (today.compareAndSet(cur, next)) return next;
+        }
+    }
+
+    private static long currentDay() {
+        return Dates.today();
+    }
+}
@@ -0,0 +1,92 @@
+package server.model;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Locale;
+
+/**
+ * Date helpers shared by the order code. Formatters are immutable and safe to
+ * share between threads, unlike SimpleDateFormat. Day and month buckets are
+ * plain numbers worked out from the epoch millis, so the dashboard and
+ * reports never format or parse a date while counting.
+ */
+public final class Dates {
+    /** Server time zone, read once at startup. */
+    public static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** Layout of the Date: line in final_orders.txt, e.g. "Mon Dec 22 10:38:50 MYT 2025". */
+    public static final DateTimeFormatter ORDER_TEXT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH);
+
+    public static final DateTimeFormatter MONTH_LABEL = DateTimeFormatter.ofPattern("MMM yyyy", Locale.ENGLISH);
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final ZoneRules RULES = ZONE.getRules();
+    // The offset in force between the zone's last transition and its next one.
+    // Asia/Kuala_Lumpur has been UTC+8 since 1982 with nothing scheduled, so
+    // every order falls in this span; only older dates look up the rules.
+    private static final long ERA_START;
+    private static final long ERA_END;
+    private static final long ERA_OFFSET_MILLIS;
+
+    static {
+        Instant now = Instant.now();
+        ZoneOffsetTransition last = RULES.previousTransition(now);
+        ZoneOffsetTransition next = RULES.nextTransition(now);
+        ERA_START = last != null ? last.toEpochSecond() * 1000L : Long.MIN_VALUE;
+        ERA_END = next != null ? next.toEpochSecond() * 1000L : Long.MAX_VALUE;
+        ERA_OFFSET_MILLIS = RULES.getOffset(now).getTotalSeconds() * 1000L;
+    }
+
+    private Dates() {
+    }
+
+    /** Local calendar day of the given instant, as days since 1970-01-01. */
+    public static long epochDay(long epochMillis) {
+        long offset = epochMillis >= ERA_START && epochMillis < ERA_END
+                ? ERA_OFFSET_MILLIS
+                : RULES.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+        return Math.floorDiv(epochMillis + offset, MILLIS_PER_DAY);
+    }
+
+    public static long today() {
+        return epochDay(System.currentTimeMillis());
+    }
+
+    /** Local month of the given instant as year * 12 + (month - 1), so keys sort by time. */
+    public static int monthKey(long epochMillis) {
+        return monthKeyOfDay(epochDay(epochMillis));
+    }
+
+    /** Same as monthKey, from an epoch day (civil-from-days, no objects created). */
+    static int monthKeyOfDay(long epochDay) {
+        // Shift to a year starting in March so the leap day falls at the end
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    public static YearMonth yearMonth(int monthKey) {
+        return YearMonth.of(Math.floorDiv(monthKey, 12), Math.floorMod(monthKey, 12) + 1);
+    }
+
+    public static String formatOrderText(Instant instant) {
+        return ORDER_TEXT.format(instant.atZone(ZONE));
+    }
+
+    /** Parses the final_orders.txt date; throws DateTimeParseException if it does not match. */
+    public static Instant parseOrderText(String text) {
+        return ZonedDateTime.parse(text, ORDER_TEXT).toInstant();
+    }
+}
@@ -0,0 +1,165 @@
+package server.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-writer group commit stage. Callers submit appends from any thread;
+ * one writer thread collects whatever has queued up (at most maxBatch writes,
+ * waiting at most maxDelay for more to arrive), appends them, fsyncs every
+ * file touched once and only then completes the callers' futures.
+ *
+ * Settings: -Dcookiehaven.commit.maxDelayMs (default 2),
+ *           -Dcookiehaven.commit.maxBatch   (default 256).
+ */
+public class GroupCommitWriter {
+
+    /** Something the writer can append to and fsync. */
+    public interface Sink {
+        void write(byte[] data) throws IOException;
+        void force() throws IOException;
+    }
+
+    private static final GroupCommitWriter SHARED = new GroupCommitWriter("group-commit",
+            Long.getLong("cookiehaven.commit.maxDelayMs", 2),
+            Integer.getInteger("cookiehaven.commit.maxBatch", 256));
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final LatencyHistogram writeTime;
+    private final LatencyHistogram fsyncTime;
+    private final LongAdder batches;
+    private final LongAdder records;
+
+    public GroupCommitWriter(String name, long maxDelayMs, int maxBatch) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.writeTime = Metrics.timer("cookiehaven_commit_write_seconds", "Time to write one group commit batch", "writer", name);
+        this.fsyncTime = Metrics.timer("cookiehaven_commit_fsync_seconds", "Time to fsync one group commit batch", "writer", name);
+        this.batches = Metrics.counter("cookiehaven_commit_batches_total", "Group commit batches written", "writer", name);
+        this.records = Metrics.counter("cookiehaven_commit_records_total", "Records written through group commit", "writer", name);
+        Thread writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drainOnShutdown));
+    }
+
+    public static GroupCommitWriter shared() {
+        return SHARED;
+    }
+
+    public CompletableFuture<Void> submit(Sink sink, byte[] data) {
+        Pending p = new Pending(sink, data);
+        queue.add(p);
+        return p.done;
+    }
+
+    public CompletableFuture<Void> submit(Sink sink, String data) {
+        return submit(sink, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void commit(List<Pending> batch) {
+        long start = System.nanoTime();
+        Set<Sink> touched = new LinkedHashSet<>();
+        Map<Sink, IOException> failed = new HashMap<>();
+        for (Pending p : batch) {
+            if (failed.containsKey(p.sink)) continue;
+            try {
+                p.sink.write(p.data);
+                touched.add(p.sink);
+            } catch (IOException e) {
+                failed.put(p.sink, e);
+            }
+        }
+        long written = System.nanoTime();
+        writeTime.record(written - start);
+        for (Sink sink : touched) {
+            if (failed.containsKey(sink)) continue;
+            try {
+                sink.force();
+            } catch (IOException e) {
+                failed.put(sink, e);
+            }
+        }
+        fsyncTime.recordSince(written);
+        batches.increment();
+        records.add(batch.size());
+        for (Pending p : batch) {
+            IOException e = failed.get(p.sink);
+            if (e == null) {
+                p.done.complete(null);
+            } else {
+                p.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void drainOnShutdown() {
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) commit(rest);
+    }
+
+    private static final class Pending {
+        final Sink sink;
+        final byte[] data;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Sink sink, byte[] data) {
+            this.sink = sink;
+            this.data = data;
+        }
+    }
+
+    /** Plain append-only file, e.g. orderdata.txt. */
+    public static class FileSink implements Sink {
+        private final FileChannel channel;
+
+        public FileSink(String path) throws IOException {
+            this.channel = FileChannel.open(new File(path).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void write(byte[] data) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package server.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Append-only record log. Each record is one line of '|' separated fields.
+ * Appends are handed to a {@link GroupCommitWriter}, which batches them with
+ * other writes and completes the returned future once they are on disk.
+ * The log is split into numbered generations (name.1, name.2, ...) so that a
+ * compaction can roll to a fresh file and drop the old ones once a snapshot
+ * has been written.
+ */
+public class Journal implements GroupCommitWriter.Sink, Closeable {
+    private static final Log LOG = Log.get(Journal.class);
+
+    private final File dir;
+    private final String baseName;
+    private final GroupCommitWriter writer;
+    private FileChannel channel;
+    private int generation;
+    private int recordCount;
+
+    public Journal(File dir, String baseName, GroupCommitWriter writer) throws IOException {
+        this.dir = dir;
+        this.baseName = baseName;
+        this.writer = writer;
+        List<Integer> gens = generations(dir, baseName);
+        this.generation = gens.isEmpty() ? 1 : gens.get(gens.size() - 1) + 1;
+        this.channel = open(generation);
+    }
+
+    /** True if any generation of the named journal is on disk. Unlike the constructor this creates nothing. */
+    public static boolean exists(File dir, String baseName) {
+        return !generations(dir, baseName).isEmpty();
+    }
+
+    public CompletableFuture<Void> append(String... fields) {
+        synchronized (this) {
+            recordCount++;
+        }
+        return writer.submit(this, encode(fields));
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized void write(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Closes the current generation and starts a new one. Returns the
+     * generation number that was closed; everything up to and including it
+     * can be deleted with {@link #dropUpTo(int)} once a snapshot covers it.
+     */
+    public synchronized int roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        int closed = generation;
+        generation++;
+        channel = open(generation);
+        recordCount = 0;
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    public void dropUpTo(int gen) {
+        for (int g : generations(dir, baseName)) {
+            if (g <= gen) {
+                fileFor(g).delete();
+            }
+        }
+    }
+
+    /** Replays every record of every generation on disk, oldest first. Returns the record count. */
+    public int replay(Consumer<String[]> consumer) throws IOException {
+        int replayed = 0;
+        for (int g : generations(dir, baseName)) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(fileFor(g)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    try {
+                        consumer.accept(decode(line));
+                        replayed++;
+                    } catch (RuntimeException e) {
+                        LOG.warn("Skipping bad journal record", "file", fileFor(g).getName(), "record", line);
+                    }
+                }
+            }
+        }
+        return replayed;
+    }
+
+    private FileChannel open(int gen) throws IOException {
+        return FileChannel.open(fileFor(gen).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private File fileFor(int gen) {
+        return new File(dir, baseName + "." + gen);
+    }
+
+    private static List<Integer> generations(File dir, String baseName) {
+        List<Integer> gens = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) return gens;
+        String prefix = baseName + ".";
+        for (String name : names) {
+            if (!name.startsWith(prefix)) continue;
+            try {
+                gens.add(Integer.parseInt(name.substring(prefix.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(gens);
+        return gens;
+    }
+
+    // --- Record encoding: '|' separates fields, '\' escapes, "\0" is null ---
+
+    static String encode(String... fields) {
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append('|');
+            String f = fields[i];
+            if (f == null) {
+                sb.append("\\0");
+                continue;
+            }
+            for (int j = 0; j < f.length(); j++) {
+                char c = f.charAt(j);
+                switch (c) {
+                    case '\\': sb.append("\\\\"); break;
+                    case '|': sb.append("\\p"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    default: sb.append(c);
+                }
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    static String[] decode(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean isNull = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '|') {
+                fields.add(isNull ? null : sb.toString());
+                sb.setLength(0);
+                isNull = false;
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char n = line.charAt(++i);
+                switch (n) {
+                    case 'p': sb.append('|'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case '0': isNull = true; break;
+                    default: sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(isNull ? null : sb.toString());
+        return fields.toArray(new String[0]);
+    }
+}
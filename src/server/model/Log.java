@@ -0,0 +1,369 @@
+package server.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logging.
+ *
+ * Calling threads only build a small event and put it in a bounded lock-free
+ * ring buffer. They never format text or touch a file. A single background
+ * thread drains the ring in batches, renders each event as one logfmt line
+ * (time, level, logger, msg="...", then key=value fields), and writes the
+ * batch to logs/server.log and, optionally, the console. The file rolls over
+ * by size. The writer sleeps while the ring is empty and the first event
+ * logged after that wakes it.
+ *
+ * When the ring is full, DEBUG and INFO events are dropped and counted (the
+ * default), or the caller waits for room. WARN and ERROR always wait. Dropped
+ * counts are reported in the log and in /admin/metrics.
+ *
+ * <pre>
+ * private static final Log LOG = Log.get(OrderDatabase.class);
+ * LOG.info("Order added", "orderId", id, "total", Money.format(cents));
+ * LOG.error("Cannot save order", e, "orderId", id);
+ * </pre>
+ *
+ * Settings (-Dcookiehaven.log.*): level (DEBUG/INFO/WARN/ERROR, default INFO),
+ * dir (default "logs"), maxMb per file (default 10), keep (rolled files kept,
+ * default 5), console (default true), bufferSize (default 8192),
+ * overflow (drop or block, default drop).
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level THRESHOLD = Level.valueOf(System.getProperty("cookiehaven.log.level", "INFO").toUpperCase());
+    private static final boolean BLOCK_WHEN_FULL = "block".equalsIgnoreCase(System.getProperty("cookiehaven.log.overflow", "drop"));
+    private static final Ring RING = new Ring(Integer.getInteger("cookiehaven.log.bufferSize", 8192));
+    private static final LongAdder DROPPED = Metrics.counter("cookiehaven_log_dropped_total", "Log events dropped because the buffer was full");
+    private static final LongAdder WRITTEN = Metrics.counter("cookiehaven_log_events_total", "Log events written");
+    private static final Writer WRITER = new Writer();
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(Class<?> type) {
+        return new Log(type.getSimpleName());
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    public void debug(String msg, Object... fields) {
+        log(Level.DEBUG, msg, null, fields);
+    }
+
+    public void info(String msg, Object... fields) {
+        log(Level.INFO, msg, null, fields);
+    }
+
+    public void warn(String msg, Object... fields) {
+        log(Level.WARN, msg, null, fields);
+    }
+
+    public void warn(String msg, Throwable error, Object... fields) {
+        log(Level.WARN, msg, error, fields);
+    }
+
+    public void error(String msg, Throwable error, Object... fields) {
+        log(Level.ERROR, msg, error, fields);
+    }
+
+    /** Fields are name/value pairs; values are rendered with String.valueOf on the writer thread, so pass immutable ones. */
+    public void log(Level level, String msg, Throwable error, Object... fields) {
+        if (!isEnabled(level)) return;
+        Event e = new Event(System.currentTimeMillis(), level, name, Thread.currentThread().getName(), msg, error, fields);
+        if (RING.offer(e)) {
+            WRITER.wake();
+            return;
+        }
+        if (!BLOCK_WHEN_FULL && level.compareTo(Level.WARN) < 0) {
+            DROPPED.increment();
+            return;
+        }
+        do {
+            LockSupport.unpark(WRITER.thread);
+            LockSupport.parkNanos(50_000);
+        } while (!RING.offer(e));
+    }
+
+    /** Blocks until everything logged so far is written; for shutdown and tools. */
+    public static void flush() {
+        WRITER.drainNow();
+    }
+
+    private static final class Event {
+        final long time;
+        final Level level;
+        final String logger;
+        final String thread;
+        final String msg;
+        final Throwable error;
+        final Object[] fields;
+
+        Event(long time, Level level, String logger, String thread, String msg, Throwable error, Object[] fields) {
+            this.time = time;
+            this.level = level;
+            this.logger = logger;
+            this.thread = thread;
+            this.msg = msg;
+            this.error = error;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer queue. Each slot carries a
+     * sequence number that says whether it is free for the producer at a
+     * given position or full for the consumer, so neither side takes a lock.
+     */
+    private static final class Ring {
+        private final Event[] slots;
+        private final AtomicLongArray sequence;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private long head; // writer thread only
+
+        Ring(int requested) {
+            int capacity = Integer.highestOneBit(Math.max(64, requested - 1) << 1);
+            slots = new Event[capacity];
+            sequence = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        }
+
+        boolean offer(Event e) {
+            long pos = tail.get();
+            while (true) {
+                int i = (int) pos & mask;
+                long diff = sequence.get(i) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        slots[i] = e;
+                        // A full write, not lazySet: wake() reads the writer's sleeping flag right after
+                        sequence.set(i, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return sequence.get((int) head & mask) != head + 1;
+        }
+
+        Event poll() {
+            int i = (int) head & mask;
+            if (sequence.get(i) != head + 1) return null;
+            Event e = slots[i];
+            slots[i] = null;
+            sequence.lazySet(i, head + slots.length);
+            head++;
+            return e;
+        }
+    }
+
+    private static final class Writer implements Runnable {
+        private static final int BATCH = 512;
+
+        private final File dir = new File(System.getProperty("cookiehaven.log.dir", "logs"));
+        private final File file = new File(dir, "server.log");
+        private final long maxBytes = Long.getLong("cookiehaven.log.maxMb", 10) * 1024 * 1024;
+        private final int keep = Integer.getInteger("cookiehaven.log.keep", 5);
+        private final boolean console = Boolean.parseBoolean(System.getProperty("cookiehaven.log.console", "true"));
+        // Captured before anything can redirect System.out
+        private final PrintStream stdout = System.out;
+
+        private final StringBuilder line = new StringBuilder(256);
+        private final StringBuilder batch = new StringBuilder(16 * 1024);
+        private final Thread thread;
+        private OutputStream out;
+        private long size;
+        private long reportedDrops;
+        private volatile boolean sleeping;
+
+        Writer() {
+            thread = new Thread(this, "log-writer");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::drainNow, "log-flush"));
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (drain() > 0) continue;
+                // Say we are going to sleep before the last look, so a producer
+                // either sees the flag and wakes us or its event is seen here
+                sleeping = true;
+                if (isIdle()) LockSupport.park(this);
+                sleeping = false;
+            }
+        }
+
+        /** Called after every successful offer; only costs an unpark when the writer is asleep. */
+        void wake() {
+            if (sleeping) {
+                sleeping = false;
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private synchronized boolean isIdle() {
+            return RING.isEmpty();
+        }
+
+        synchronized void drainNow() {
+            while (drain() > 0) {
+                // keep going until the ring is empty
+            }
+        }
+
+        /** Writes up to one batch; returns how many events it took. */
+        private synchronized int drain() {
+            int n = 0;
+            Event e;
+            while (n < BATCH && (e = RING.poll()) != null) {
+                format(e);
+                batch.append(line);
+                n++;
+            }
+            long drops = DROPPED.sum();
+            if (drops != reportedDrops) {
+                format(new Event(System.currentTimeMillis(), Level.WARN, "Log", thread.getName(),
+                        "Log buffer full, events dropped", null, new Object[]{"dropped", drops - reportedDrops}));
+                batch.append(line);
+                reportedDrops = drops;
+            }
+            if (batch.length() > 0) {
+                write(batch);
+                batch.setLength(0);
+                WRITTEN.add(n);
+            }
+            return n;
+        }
+
+        private void format(Event e) {
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(e.time)).append(' ');
+            line.append(e.level);
+            if (e.level.name().length() == 4) line.append(' ');
+            line.append(' ').append(e.logger).append(" [").append(e.thread).append("] msg=");
+            quote(line, e.msg);
+            Object[] f = e.fields;
+            for (int i = 0; f != null && i + 1 < f.length; i += 2) {
+                line.append(' ').append(f[i]).append('=');
+                value(line, String.valueOf(f[i + 1]));
+            }
+            if (e.error != null) {
+                line.append(" error=");
+                quote(line, e.error.toString());
+                line.append('\n');
+                StringWriter trace = new StringWriter();
+                e.error.printStackTrace(new PrintWriter(trace));
+                line.append(trace);
+            } else {
+                line.append('\n');
+            }
+        }
+
+        private static void value(StringBuilder sb, String v) {
+            boolean plain = !v.isEmpty();
+            for (int i = 0; plain && i < v.length(); i++) {
+                char c = v.charAt(i);
+                plain = c > ' ' && c != '"' && c != '=' && c != '\\';
+            }
+            if (plain) {
+                sb.append(v);
+            } else {
+                quote(sb, v);
+            }
+        }
+
+        private static void quote(StringBuilder sb, String v) {
+            sb.append('"');
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default: sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+
+        private void write(StringBuilder text) {
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            if (console) {
+                stdout.write(bytes, 0, bytes.length);
+                stdout.flush();
+            }
+            try {
+                if (out == null) open();
+                out.write(bytes);
+                out.flush();
+                size += bytes.length;
+                if (size >= maxBytes) roll();
+            } catch (IOException ex) {
+                // Nowhere better to report it; keep going so a full disk doesn't stop the server
+                stdout.println("Cannot write " + file + ": " + ex);
+                closeQuietly();
+            }
+        }
+
+        private void open() throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            out = new FileOutputStream(file, true);
+            size = file.length();
+        }
+
+        private void roll() throws IOException {
+            closeQuietly();
+            new File(dir, "server.log." + keep).delete();
+            for (int i = keep - 1; i >= 1; i--) {
+                File from = new File(dir, "server.log." + i);
+                if (from.exists()) from.renameTo(new File(dir, "server.log." + (i + 1)));
+            }
+            if (keep > 0) {
+                file.renameTo(new File(dir, "server.log.1"));
+            } else {
+                file.delete();
+            }
+            open();
+        }
+
+        private void closeQuietly() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+            out = null;
+        }
+    }
+}
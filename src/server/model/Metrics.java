@@ -0,0 +1,139 @@
+package server.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics, exposed at /admin/metrics in the Prometheus text
+ * format.
+ *
+ * Look a metric up once and keep the returned object. Updating it is a
+ * LongAdder or histogram add; the registry maps are only touched on lookup
+ * and when rendering. Labels are passed as name/value pairs, e.g.
+ * {@code Metrics.timer("cookiehaven_stage_seconds", "...", "stage", "bcrypt")}.
+ *
+ * Timers come out as summaries: p50, p90, p99, p99.9 and max (quantile 1),
+ * plus _sum and _count, all in seconds.
+ */
+public final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private enum Type { COUNTER, GAUGE, SUMMARY }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        // Rendered label set -> LongAdder, AtomicLong, LongSupplier or LatencyHistogram
+        final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) child(name, help, Type.COUNTER, labels, LongAdder::new);
+    }
+
+    public static AtomicLong gauge(String name, String help, String... labels) {
+        return (AtomicLong) child(name, help, Type.GAUGE, labels, AtomicLong::new);
+    }
+
+    /** A gauge read from elsewhere when rendering, e.g. a queue size. Re-registering replaces it. */
+    public static void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).children.put(renderLabels(labels), value);
+    }
+
+    public static LatencyHistogram timer(String name, String help, String... labels) {
+        return (LatencyHistogram) child(name, help, Type.SUMMARY, labels, LatencyHistogram::new);
+    }
+
+    /** Shorthand for the internal stage timers, all under cookiehaven_stage_seconds{stage=...}. */
+    public static LatencyHistogram stage(String stage) {
+        return timer("cookiehaven_stage_seconds", "Time spent in internal stages such as fsync and BCrypt", "stage", stage);
+    }
+
+    public static void writePrometheus(StringBuilder out) {
+        for (Family f : FAMILIES.values()) {
+            out.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(f.name).append(' ').append(f.type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> e : new ConcurrentSkipListMap<>(f.children).entrySet()) {
+                String labels = e.getKey();
+                Object m = e.getValue();
+                if (m instanceof LatencyHistogram) {
+                    writeSummary(out, f.name, labels, (LatencyHistogram) m);
+                } else {
+                    long v;
+                    if (m instanceof LongAdder) v = ((LongAdder) m).sum();
+                    else if (m instanceof AtomicLong) v = ((AtomicLong) m).get();
+                    else v = ((LongSupplier) m).getAsLong();
+                    sample(out, f.name, labels, null).append(v).append('\n');
+                }
+            }
+        }
+    }
+
+    private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram h) {
+        for (double q : QUANTILES) {
+            sample(out, name, labels, "quantile=\"" + q + "\"").append(h.percentileNanos(q) / NANOS_PER_SECOND).append('\n');
+        }
+        // quantile 1 is the exact max
+        sample(out, name, labels, "quantile=\"1\"").append(h.getMaxNanos() / NANOS_PER_SECOND).append('\n');
+        sample(out, name + "_sum", labels, null).append(h.getSumNanos() / NANOS_PER_SECOND).append('\n');
+        sample(out, name + "_count", labels, null).append(h.getCount()).append('\n');
+    }
+
+    private static StringBuilder sample(StringBuilder out, String name, String labels, String extra) {
+        out.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.append('{').append(labels);
+            if (extra != null) out.append(labels.isEmpty() ? "" : ",").append(extra);
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static Object child(String name, String help, Type type, String[] labels,
+                                Supplier<Object> create) {
+        return family(name, help, type).children.computeIfAbsent(renderLabels(labels), k -> create.get());
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family f = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (f.type != type) throw new IllegalArgumentException(name + " is already registered as a " + f.type);
+        return f;
+    }
+
+    /** name="value" pairs in the order given, with the value escaped as the format requires. */
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels come in name/value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            String v = labels[i + 1];
+            for (int j = 0; j < v.length(); j++) {
+                char c = v.charAt(j);
+                if (c == '\\' || c == '"') sb.append('\\').append(c);
+                else if (c == '\n') sb.append("\\n");
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+}
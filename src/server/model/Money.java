@@ -0,0 +1,78 @@
+package server.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Ringgit amounts as a plain long number of sen (cents). Prices, line totals,
+ * order totals and report sums all use this, so adding them up is exact.
+ * Formatting appends digits straight into a StringBuilder instead of going
+ * through String.format.
+ */
+public final class Money {
+    private Money() {
+    }
+
+    /**
+     * Parses "12", "12.5", "12.50" or "-3.25". Anything else a decimal can
+     * look like (e.g. "1.0E3" from an old file) falls back to BigDecimal and is
+     * rounded half-up to the nearest sen.
+     */
+    public static long parse(String s) {
+        s = s.trim();
+        int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < len && digits < 16; i++, digits++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') break;
+            units = units * 10 + (c - '0');
+        }
+        long cents = -1;
+        if (digits > 0 && i == len) {
+            cents = units * 100;
+        } else if (digits > 0 && s.charAt(i) == '.') {
+            int frac = len - i - 1;
+            if (frac == 1 || frac == 2) {
+                int d1 = s.charAt(i + 1) - '0';
+                int d2 = frac == 2 ? s.charAt(i + 2) - '0' : 0;
+                if (d1 >= 0 && d1 <= 9 && d2 >= 0 && d2 <= 9) {
+                    cents = units * 100 + d1 * 10 + d2;
+                }
+            }
+        }
+        if (cents < 0) {
+            return new BigDecimal(s).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        }
+        return negative ? -cents : cents;
+    }
+
+    public static long times(long cents, int quantity) {
+        return Math.multiplyExact(cents, (long) quantity);
+    }
+
+    /** Appends e.g. "12.50" or "-0.05". */
+    public static StringBuilder append(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) {
+                return sb.append(BigDecimal.valueOf(cents).movePointLeft(2).negate().toPlainString());
+            }
+            cents = -cents;
+        }
+        long frac = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (frac < 10) sb.append('0');
+        return sb.append(frac);
+    }
+
+    public static String format(long cents) {
+        return append(new StringBuilder(12), cents).toString();
+    }
+}
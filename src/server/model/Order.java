@@ -1,6 +1,7 @@
 package server.model;
 
 import java.io.Serializable;
+import java.time.Instant;
 import java.util.*;
 
 public class Order implements Serializable {
@@ -14,13 +15,13 @@ public class Order implements Serializable {
     protected final String ccNumber;
     protected final String ccExpiry;
     protected final List<CartItem> items;
-    protected final double total;
+    protected final long totalCents;
     protected final String status;
-    protected final Date orderDate;
+    protected final Instant orderDate;
 
     public Order(long orderId, String customerName, String phone, String address,
                  String paymentMethod, String ccNumber, String ccExpiry,
-                 List<CartItem> items, double total) {
+                 List<CartItem> items, long totalCents) {
         this.orderId = orderId;
         this.customerName = customerName;
         this.phone = phone;
@@ -29,9 +30,9 @@ public class Order implements Serializable {
         this.ccNumber = ccNumber;
         this.ccExpiry = ccExpiry;
         this.items = items;
-        this.total = total;
+        this.totalCents = totalCents;
         this.status = "Pending";
-        this.orderDate = new Date();
+        this.orderDate = Instant.now();
     }
 
     // --- GETTERS (Fixed: All symbols now exist) ---
@@ -43,12 +44,15 @@ public class Order implements Serializable {
     public String getCcNumber() { return ccNumber; } // This fixes your error
     public String getCcExpiry() { return ccExpiry; } // Added for safety
     public List<CartItem> getItems() { return items; }
-    public double getTotal() { return total; }
+    /** Order total in sen, see {@link Money}. */
+    public long getTotalCents() { return totalCents; }
     public String getStatus() { return status; }
-    public Date getOrderDate() { return orderDate; }
+    public Instant getOrderDate() { return orderDate; }
 
     public String toText() {
-        return String.format("ID: %d | Customer: %s | Total: RM %.2f | Status: %s | Phone: %s\n",
-                orderId, customerName, total, status, phone);
+        StringBuilder sb = new StringBuilder(96).append("ID: ").append(orderId)
+                .append(" | Customer: ").append(customerName).append(" | Total: RM ");
+        return Money.append(sb, totalCents).append(" | Status: ").append(status)
+                .append(" | Phone: ").append(phone).append('\n').toString();
     }
 }
\ No newline at end of file
@@ -2,22 +2,55 @@ package server.model;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Orders live in an {@link OrderStore} (binary segments under orders/); this
+ * class keeps the aggregates and indexes in step with it. final_orders.txt is
+ * no longer written as we go: it is imported once when the store is empty and
+ * can be produced on demand with {@link #exportText(Writer)}.
+ */
 public class OrderDatabase {
-    private static final Map<Long, OrderWithStatus> ORDERS = new ConcurrentHashMap<>();
+    private static final Log LOG = Log.get(OrderDatabase.class);
     private static final String ORDERS_FILE = "final_orders.txt";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH);
+    private static final String JOURNAL_NAME = "final_orders.journal";
+    private static final Object LOCK = new Object();
+    private static final OrderStore STORE;
+    // Last id handed out; the store is keyed by id, so two orders must never share one
+    private static final AtomicLong LAST_ID = new AtomicLong();
 
     static {
-        loadOrders();
-        System.out.println("OrderDatabase initialized. Total orders: " + ORDERS.size());
+        STORE = openStore();
+        long start = System.currentTimeMillis();
+        STORE.forEach(o -> {
+            SalesAggregates.orderAdded(o);
+            DashboardMetrics.orderAdded(o);
+            OrderIndex.orderAdded(o);
+            LAST_ID.accumulateAndGet(o.getOrderId(), Math::max);
+        });
+        LAST_ID.accumulateAndGet(start, Math::max);
+        LOG.info("OrderDatabase initialized", "orders", STORE.size(), "ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * A new, unique order id: the current time in millis, or one more than the
+     * last id when several checkouts land in the same millisecond.
+     */
+    public static long nextOrderId() {
+        return LAST_ID.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
     }
 
-    public static void addOrder(Order order) {
+    /**
+     * Records the order. Stock is taken separately through
+     * {@link ProductDatabase#reserve(List)}. The returned future completes once
+     * the group commit writer has made the order durable; only then is it
+     * counted in the reports, the dashboard and the order index.
+     */
+    public static CompletableFuture<Void> addOrder(Order order) {
         OrderWithStatus orderWithStatus = new OrderWithStatus(
                 order.getOrderId(),
                 order.getCustomerName(),
@@ -27,132 +60,212 @@ public class OrderDatabase {
                 order.getCcNumber(),
                 order.getCcExpiry(),
                 order.getItems(),
-                order.getTotal(),
+                order.getTotalCents(),
                 "Pending",
-                new Date()
+                Instant.now()
         );
 
-        ORDERS.put(order.getOrderId(), orderWithStatus);
-        saveOrders();
-
-        System.out.println("✓ Order #" + order.getOrderId() + " saved to final_orders.txt");
-        System.out.println("  Customer: " + order.getCustomerName());
-        System.out.println("  Items: " + order.getItems().size());
-        System.out.println("  Total: RM " + order.getTotal());
-
-        for (CartItem item : order.getItems()) {
-            ProductDatabase.reduceStock(item.getProductId(), item.getQuantity());
+        CompletableFuture<Void> write;
+        synchronized (LOCK) {
+            write = STORE.put(orderWithStatus);
         }
 
-        ORDERS.put(order.getOrderId(), orderWithStatus);
-        saveOrders();
+        LOG.info("Order added", "orderId", order.getOrderId(), "customer", order.getCustomerName(),
+                "items", order.getItems().size(), "totalCents", order.getTotalCents());
+
+        // A failed write leaves nothing behind in the aggregates to undo
+        return write.thenRun(() -> {
+            synchronized (LOCK) {
+                SalesAggregates.orderAdded(orderWithStatus);
+                DashboardMetrics.orderAdded(orderWithStatus);
+                OrderIndex.orderAdded(orderWithStatus);
+            }
+        });
     }
 
-    public static void updateOrderStatus(long orderId, String newStatus) {
-        OrderWithStatus order = ORDERS.get(orderId);
-        if (order != null) {
-            OrderWithStatus updated = new OrderWithStatus(
-                    order.getOrderId(),
-                    order.getCustomerName(),
-                    order.getPhone(),
-                    order.getAddress(),
-                    order.getPaymentMethod(),
-                    order.getCcNumber(),
-                    order.getCcExpiry(),
-                    order.getItems(),
-                    order.getTotal(),
-                    newStatus,
-                    order.getOrderDate()
-            );
-            ORDERS.put(orderId, updated);
-            saveOrders();
-            System.out.println("✓ Order #" + orderId + " status updated to: " + newStatus);
+    public static CompletableFuture<Void> updateOrderStatus(long orderId, String newStatus) {
+        CompletableFuture<Void> write;
+        String oldStatus;
+        OrderWithStatus updated;
+        synchronized (LOCK) {
+            Order order = STORE.get(orderId);
+            if (order == null) return CompletableFuture.completedFuture(null);
+            oldStatus = order.getStatus();
+            updated = withStatus(order, newStatus);
+            write = STORE.put(updated);
         }
+        LOG.info("Order status updated", "orderId", orderId, "status", newStatus);
+        // Same as addOrder: the index and aggregates move only once the store has the new status
+        return write.thenRun(() -> {
+            synchronized (LOCK) {
+                SalesAggregates.statusChanged(oldStatus, newStatus);
+                OrderIndex.statusChanged(updated, oldStatus);
+            }
+        });
     }
 
+    /** Decodes every order; O(history), so only for exports and tooling. */
     public static List<Order> getAllOrders() {
-        return new ArrayList<>(ORDERS.values());
+        List<Order> all = new ArrayList<>();
+        STORE.forEach(all::add);
+        return all;
     }
 
-    private static void saveOrders() {
-        try (BufferedWriter writer = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(ORDERS_FILE), StandardCharsets.UTF_8))) {
-
-            // Sort orders by ID for consistent output
-            List<OrderWithStatus> sortedOrders = new ArrayList<>(ORDERS.values());
-            sortedOrders.sort(Comparator.comparingLong(OrderWithStatus::getOrderId));
-
-            for (OrderWithStatus order : sortedOrders) {
-                // Write order header
-                writer.write("--- FINAL ORDER #" + order.getOrderId() + " ---");
-                writer.newLine();
-
-                // Write date
-                writer.write("Date: " + DATE_FORMAT.format(order.getOrderDate()));
-                writer.newLine();
-
-                // Write customer details
-                writer.write("Name: " + order.getCustomerName());
-                writer.newLine();
-                writer.write("Phone: " + order.getPhone());
-                writer.newLine();
-                writer.write("Address: " + order.getAddress());
-                writer.newLine();
-
-                // Write payment details
-                writer.write("Payment: " + order.getPaymentMethod());
-                writer.newLine();
-
-                if (order.getPaymentMethod().equals("CC") &&
-                        !order.getCcNumber().equals("N/A")) {
-                    writer.write("  Card #: " + order.getCcNumber());
-                    writer.newLine();
-                    writer.write("  Expiry: " + order.getCcExpiry());
-                    writer.newLine();
-                }
+    public static int getOrderCount() {
+        return STORE.size();
+    }
 
-                // Write status (if not Pending)
-                if (!order.getStatus().equals("Pending")) {
-                    writer.write("Status: " + order.getStatus());
-                    writer.newLine();
-                }
+    /** Served from the hot set when recently used, otherwise decoded from its segment. */
+    public static Order getOrder(long orderId) {
+        return STORE.get(orderId);
+    }
 
-                // Write total
-                writer.write(String.format("Total: RM %.2f", order.getTotal()));
-                writer.newLine();
-
-                // Write items
-                writer.write("Items:");
-                writer.newLine();
-                for (CartItem item : order.getItems()) {
-                    double subtotal = item.getPrice() * item.getQuantity();
-                    writer.write(String.format("  - Product ID: %s (Qty: %d, Price: %.2f, Subtotal: %.2f)",
-                            item.getProductId(),
-                            item.getQuantity(),
-                            item.getPrice(),
-                            subtotal));
-                    writer.newLine();
-                }
+    /** Like getOrder, but leaves the hot set alone; for scans that look at many orders. */
+    static Order peekOrder(long orderId) {
+        return STORE.get0(orderId);
+    }
+
+    private static OrderWithStatus withStatus(Order order, String newStatus) {
+        return new OrderWithStatus(
+                order.getOrderId(),
+                order.getCustomerName(),
+                order.getPhone(),
+                order.getAddress(),
+                order.getPaymentMethod(),
+                order.getCcNumber(),
+                order.getCcExpiry(),
+                order.getItems(),
+                order.getTotalCents(),
+                newStatus,
+                order.getOrderDate()
+        );
+    }
+
+    private static OrderStore openStore() {
+        try {
+            OrderStore store = new OrderStore(new File(System.getProperty("cookiehaven.orders.dir", "orders")),
+                    GroupCommitWriter.shared());
+            if (store.isEmpty()) importLegacy(store);
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open order store", e);
+        }
+    }
+
+    // --- Legacy import: final_orders.txt plus any text journal left by older versions ---
+
+    private static void importLegacy(OrderStore store) throws IOException {
+        Map<Long, OrderWithStatus> orders = new LinkedHashMap<>();
+        loadOrders(orders);
+        // Opening a Journal starts a new generation, so only do it if there is an old one to read
+        File dir = new File(".");
+        Journal journal = Journal.exists(dir, JOURNAL_NAME)
+                ? new Journal(dir, JOURNAL_NAME, GroupCommitWriter.shared()) : null;
+        try {
+            int replayed = journal == null ? 0 : journal.replay(f -> applyRecord(orders, f));
+            if (orders.isEmpty()) return;
+
+            store.importAll(orders.values());
+            // Only now that the store is durable can the old journal go
+            if (journal != null) journal.dropUpTo(Integer.MAX_VALUE);
+            LOG.info("Imported legacy orders into the order store", "orders", orders.size(), "journalRecords", replayed);
+        } finally {
+            if (journal != null) journal.close();
+        }
+    }
 
-                // Write separator
-                writer.write("-------------------------");
-                writer.newLine();
-                writer.newLine();
+    private static void applyRecord(Map<Long, OrderWithStatus> orders, String[] f) {
+        if ("O".equals(f[0])) {
+            List<CartItem> items = new ArrayList<>();
+            for (int i = 11; i + 3 < f.length; i += 4) {
+                items.add(new CartItem(f[i], f[i + 1], Money.parse(f[i + 3]), Integer.parseInt(f[i + 2])));
             }
+            long id = Long.parseLong(f[1]);
+            orders.put(id, new OrderWithStatus(id, f[3], f[4], f[5], f[6], f[7], f[8],
+                    items, Money.parse(f[9]), f[10], Instant.ofEpochMilli(Long.parseLong(f[2]))));
+        } else if ("S".equals(f[0])) {
+            long id = Long.parseLong(f[1]);
+            OrderWithStatus order = orders.get(id);
+            if (order != null) orders.put(id, withStatus(order, f[2]));
+        }
+    }
 
-            writer.flush();
-            System.out.println("✓ Orders saved to final_orders.txt: " + ORDERS.size() + " orders");
+    // --- Text export, in the old final_orders.txt layout ---
 
-        } catch (IOException e) {
-            System.err.println("Error saving orders: " + e.getMessage());
-            e.printStackTrace();
+    /** Writes every order in the final_orders.txt format, oldest id first, one order at a time. */
+    public static void exportText(Writer out) throws IOException {
+        BufferedWriter writer = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+        StringBuilder line = new StringBuilder(128);
+        for (long id : STORE.sortedIds()) {
+            Order order = STORE.get0(id);
+            if (order != null) writeOrder(writer, order, line);
+        }
+        writer.flush();
+    }
+
+    private static void writeOrder(BufferedWriter writer, Order order, StringBuilder line) throws IOException {
+        // Write order header
+        writer.write("--- FINAL ORDER #" + order.getOrderId() + " ---");
+        writer.newLine();
+
+        // Write date
+        writer.write("Date: " + Dates.formatOrderText(order.getOrderDate()));
+        writer.newLine();
+
+        // Write customer details
+        writer.write("Name: " + order.getCustomerName());
+        writer.newLine();
+        writer.write("Phone: " + order.getPhone());
+        writer.newLine();
+        writer.write("Address: " + order.getAddress());
+        writer.newLine();
+
+        // Write payment details
+        writer.write("Payment: " + order.getPaymentMethod());
+        writer.newLine();
+
+        if ("CC".equals(order.getPaymentMethod()) &&
+                !"N/A".equals(order.getCcNumber())) {
+            writer.write("  Card #: " + order.getCcNumber());
+            writer.newLine();
+            writer.write("  Expiry: " + order.getCcExpiry());
+            writer.newLine();
+        }
+
+        // Write status (if not Pending)
+        if (!order.getStatus().equals("Pending")) {
+            writer.write("Status: " + order.getStatus());
+            writer.newLine();
         }
+
+        // Write total
+        line.setLength(0);
+        writer.append(Money.append(line.append("Total: RM "), order.getTotalCents()));
+        writer.newLine();
+
+        // Write items
+        writer.write("Items:");
+        writer.newLine();
+        for (CartItem item : order.getItems()) {
+            line.setLength(0);
+            line.append("  - Product ID: ").append(item.getProductId())
+                    .append(" (Qty: ").append(item.getQuantity()).append(", Price: ");
+            Money.append(line, item.getPriceCents()).append(", Subtotal: ");
+            Money.append(line, item.getSubtotalCents()).append(')');
+            writer.append(line);
+            writer.newLine();
+        }
+
+        // Write separator
+        writer.write("-------------------------");
+        writer.newLine();
+        writer.newLine();
     }
 
-    private static void loadOrders() {
+    private static void loadOrders(Map<Long, OrderWithStatus> orders) {
         File file = new File(ORDERS_FILE);
         if (!file.exists()) {
-            System.out.println("No final_orders.txt found. Will create on first order.");
+            LOG.info("No legacy orders to import", "file", ORDERS_FILE);
             return;
         }
 
@@ -161,7 +274,7 @@ public class OrderDatabase {
 
             String line;
             Long currentOrderId = null;
-            Date currentDate = null;
+            Instant currentDate = null;
             String currentName = null;
             String currentPhone = null;
             String currentAddress = null;
@@ -169,7 +282,7 @@ public class OrderDatabase {
             String currentCcNumber = "N/A";
             String currentCcExpiry = "N/A";
             String currentStatus = "Pending";
-            double currentTotal = 0.0;
+            long currentTotal = 0;
             List<CartItem> currentItems = new ArrayList<>();
 
             while ((line = reader.readLine()) != null) {
@@ -183,7 +296,7 @@ public class OrderDatabase {
                 // End of order block
                 if (line.equals("-------------------------")) {
                     if (currentOrderId != null) {
-                        saveLoadedOrder(currentOrderId, currentName, currentPhone, currentAddress,
+                        saveLoadedOrder(orders, currentOrderId, currentName, currentPhone, currentAddress,
                                 currentPaymentMethod, currentCcNumber, currentCcExpiry,
                                 currentTotal, currentItems, currentDate, currentStatus);
                     }
@@ -205,10 +318,10 @@ public class OrderDatabase {
                 } else if (line.startsWith("Date:")) {
                     String dateStr = line.substring(5).trim();
                     try {
-                        currentDate = DATE_FORMAT.parse(dateStr);
-                    } catch (ParseException e) {
-                        currentDate = new Date();
-                        System.err.println("Could not parse date: " + dateStr);
+                        currentDate = Dates.parseOrderText(dateStr);
+                    } catch (DateTimeParseException e) {
+                        currentDate = Instant.now();
+                        LOG.warn("Could not parse order date", "orderId", currentOrderId, "date", dateStr);
                     }
 
                 } else if (line.startsWith("Name:")) {
@@ -235,7 +348,7 @@ public class OrderDatabase {
                 } else if (line.startsWith("Total:")) {
                     String totalStr = line.substring(6).trim()
                             .replace("RM", "").trim();
-                    currentTotal = Double.parseDouble(totalStr);
+                    currentTotal = Money.parse(totalStr);
 
                 } else if (line.contains("Product ID:")) {
                     // Parse: "- Product ID: OAT002 (Qty: 1, Price: 6.50, Subtotal: 6.50)"
@@ -245,7 +358,7 @@ public class OrderDatabase {
                         String priceStr = extractValue(line, "Price:", ",").trim();
 
                         int qty = Integer.parseInt(qtyStr);
-                        double price = Double.parseDouble(priceStr);
+                        long price = Money.parse(priceStr);
 
                         // Get product name from database
                         Product product = ProductDatabase.getProductById(productId);
@@ -254,36 +367,34 @@ public class OrderDatabase {
                         currentItems.add(new CartItem(productId, productName, price, qty));
 
                     } catch (Exception e) {
-                        System.err.println("Error parsing item: " + line);
-                        e.printStackTrace();
+                        LOG.warn("Could not parse order item", e, "orderId", currentOrderId, "line", line);
                     }
                 }
             }
 
             // Save last order if exists
             if (currentOrderId != null) {
-                saveLoadedOrder(currentOrderId, currentName, currentPhone, currentAddress,
+                saveLoadedOrder(orders, currentOrderId, currentName, currentPhone, currentAddress,
                         currentPaymentMethod, currentCcNumber, currentCcExpiry,
                         currentTotal, currentItems, currentDate, currentStatus);
             }
 
-            System.out.println("✓ Loaded " + ORDERS.size() + " orders from final_orders.txt");
+            LOG.info("Loaded legacy orders", "file", ORDERS_FILE, "orders", orders.size());
 
         } catch (IOException e) {
-            System.err.println("Error loading orders: " + e.getMessage());
-            e.printStackTrace();
+            LOG.error("Error loading legacy orders", e, "file", ORDERS_FILE);
         }
     }
 
-    private static void saveLoadedOrder(Long orderId, String name, String phone, String address,
+    private static void saveLoadedOrder(Map<Long, OrderWithStatus> orders, Long orderId, String name, String phone, String address,
                                         String paymentMethod, String ccNumber, String ccExpiry,
-                                        double total, List<CartItem> items, Date date, String status) {
+                                        long total, List<CartItem> items, Instant date, String status) {
         OrderWithStatus order = new OrderWithStatus(
                 orderId, name, phone, address, paymentMethod,
                 ccNumber, ccExpiry, new ArrayList<>(items), total,
                 status, date
         );
-        ORDERS.put(orderId, order);
+        orders.put(orderId, order);
     }
 
     private static String extractValue(String line, String startMarker, String endMarker) {
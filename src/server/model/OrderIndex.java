@@ -0,0 +1,181 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * Sorted secondary indexes over the orders, kept in step by OrderDatabase:
+ * by date, by total, and per status and per customer (both by date). They only
+ * hold order ids and sort keys; a page of results is read by walking the
+ * smallest matching index from the cursor, so it costs O(page size) when the
+ * filters line up with an index.
+ */
+public class OrderIndex {
+
+    public enum Sort { DATE, TOTAL }
+
+    /** (sort value, order id) pair; the id breaks ties so keys are unique. */
+    static final class Key implements Comparable<Key> {
+        final long value;
+        final long orderId;
+
+        Key(long value, long orderId) {
+            this.value = value;
+            this.orderId = orderId;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = Long.compare(value, o.value);
+            return c != 0 ? c : Long.compare(orderId, o.orderId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).value == value && ((Key) o).orderId == orderId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(value) * 31 + Long.hashCode(orderId);
+        }
+    }
+
+    public static class Query {
+        public Sort sort = Sort.DATE;
+        public boolean descending = true;
+        public String status;
+        public String customer;
+        public Long fromMillis;   // inclusive
+        public Long toMillis;     // exclusive
+        public int limit = 50;
+        public String cursor;
+    }
+
+    public static class Page {
+        private final List<Order> orders;
+        private final String nextCursor;
+
+        Page(List<Order> orders, String nextCursor) {
+            this.orders = orders;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Order> getOrders() { return orders; }
+        public String getNextCursor() { return nextCursor; }
+    }
+
+    private static final ConcurrentSkipListSet<Key> byDate = new ConcurrentSkipListSet<>();
+    private static final ConcurrentSkipListSet<Key> byTotal = new ConcurrentSkipListSet<>();
+    private static final Map<String, ConcurrentSkipListSet<Key>> byStatus = new ConcurrentHashMap<>();
+    private static final Map<String, ConcurrentSkipListSet<Key>> byCustomer = new ConcurrentHashMap<>();
+
+    static void orderAdded(Order o) {
+        Key dateKey = dateKey(o);
+        byDate.add(dateKey);
+        byTotal.add(new Key(totalValue(o), o.getOrderId()));
+        byStatus.computeIfAbsent(o.getStatus(), k -> new ConcurrentSkipListSet<>()).add(dateKey);
+        byCustomer.computeIfAbsent(customerKey(o.getCustomerName()), k -> new ConcurrentSkipListSet<>()).add(dateKey);
+    }
+
+    static void statusChanged(Order o, String oldStatus) {
+        Key dateKey = dateKey(o);
+        Set<Key> old = byStatus.get(oldStatus);
+        if (old != null) old.remove(dateKey);
+        byStatus.computeIfAbsent(o.getStatus(), k -> new ConcurrentSkipListSet<>()).add(dateKey);
+    }
+
+    public static Page find(Query q) {
+        NavigableSet<Key> index;
+        List<Predicate<Order>> filters = new ArrayList<>();
+        boolean byDateIndex;
+
+        // Pick the narrowest index that is already in the requested order
+        if (q.sort == Sort.DATE && q.status != null) {
+            index = byStatus.getOrDefault(q.status, new ConcurrentSkipListSet<>());
+            byDateIndex = true;
+            if (q.customer != null) filters.add(o -> customerKey(o.getCustomerName()).equals(customerKey(q.customer)));
+        } else if (q.sort == Sort.DATE && q.customer != null) {
+            index = byCustomer.getOrDefault(customerKey(q.customer), new ConcurrentSkipListSet<>());
+            byDateIndex = true;
+        } else if (q.sort == Sort.DATE) {
+            index = byDate;
+            byDateIndex = true;
+        } else {
+            index = byTotal;
+            byDateIndex = false;
+            if (q.status != null) filters.add(o -> q.status.equals(o.getStatus()));
+            if (q.customer != null) filters.add(o -> customerKey(o.getCustomerName()).equals(customerKey(q.customer)));
+        }
+
+        if (byDateIndex && (q.fromMillis != null || q.toMillis != null)) {
+            // Date ranges on a date index become a sub-set instead of a filter
+            Key lo = new Key(q.fromMillis != null ? q.fromMillis : Long.MIN_VALUE, Long.MIN_VALUE);
+            Key hi = new Key(q.toMillis != null ? q.toMillis : Long.MAX_VALUE, Long.MIN_VALUE);
+            index = index.subSet(lo, true, hi, false);
+        } else if (q.fromMillis != null || q.toMillis != null) {
+            filters.add(o -> {
+                long t = o.getOrderDate().toEpochMilli();
+                return (q.fromMillis == null || t >= q.fromMillis) && (q.toMillis == null || t < q.toMillis);
+            });
+        }
+
+        Key after = parseCursor(q.cursor);
+        if (after != null) {
+            index = q.descending ? index.headSet(after, false) : index.tailSet(after, false);
+        }
+        Iterator<Key> it = q.descending ? index.descendingIterator() : index.iterator();
+
+        List<Order> page = new ArrayList<>(q.limit);
+        Key last = null;
+        while (it.hasNext() && page.size() < q.limit) {
+            Key k = it.next();
+            // A filtered walk can look at many orders it throws away, so keep those out of the hot set
+            Order o = filters.isEmpty() ? OrderDatabase.getOrder(k.orderId) : OrderDatabase.peekOrder(k.orderId);
+            if (o == null) continue;
+            boolean keep = true;
+            for (Predicate<Order> f : filters) {
+                if (!f.test(o)) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                page.add(o);
+                last = k;
+            }
+        }
+        String next = (last != null && it.hasNext()) ? last.value + ":" + last.orderId : null;
+        return new Page(page, next);
+    }
+
+    /** Throws IllegalArgumentException unless cursor is empty or came from {@link Page#getNextCursor}. */
+    public static void checkCursor(String cursor) {
+        parseCursor(cursor);
+    }
+
+    private static Key parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return null;
+        int colon = cursor.indexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Bad cursor: " + cursor);
+        try {
+            return new Key(Long.parseLong(cursor.substring(0, colon)), Long.parseLong(cursor.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad cursor: " + cursor);
+        }
+    }
+
+    private static Key dateKey(Order o) {
+        return new Key(o.getOrderDate().toEpochMilli(), o.getOrderId());
+    }
+
+    private static long totalValue(Order o) {
+        return o.getTotalCents();
+    }
+
+    private static String customerKey(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,553 @@
+package server.model;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary, log-structured order storage.
+ *
+ * Orders are appended to numbered segment files (orders/seg-N.dat) through the
+ * group commit writer. Each record is [length][payload][crc32]. A status
+ * change appends a new copy of the order, and the newest copy wins. Each
+ * segment has an offset index next to it (seg-N.idx, 16-byte entries of
+ * order id and offset). At startup the sealed segments' indexes are loaded,
+ * and only the active segment is scanned and repaired after a crash. An index
+ * whose entries don't line up with the records in its segment is thrown away
+ * and rebuilt by scanning.
+ *
+ * A failed write cuts the segment back to its last fsynced length and the
+ * segment takes no more writes, since every offset handed out after it would
+ * be wrong. The store moves on to a new segment, and orders whose write
+ * failed point back at their previous copy.
+ *
+ * The heap only holds the id -> location map and a bounded LRU of recently
+ * used orders. Everything else is decoded on demand: from a memory-mapped
+ * buffer for sealed segments, or with a positional read for the active one.
+ *
+ * Settings: -Dcookiehaven.orders.dir (default "orders"),
+ * -Dcookiehaven.orders.segmentMb (default 64), -Dcookiehaven.orders.hotSize (default 4096).
+ */
+class OrderStore {
+    private static final Log LOG = Log.get(OrderStore.class);
+    private static final byte FORMAT = 1;
+    private static final int INDEX_ENTRY = 16;
+
+    private final File dir;
+    private final GroupCommitWriter writer;
+    private final long segmentLimit;
+    private final int hotSize;
+
+    // (segment << 40) | offset of the newest copy of each order
+    private final Map<Long, Long> locations = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    // Submitted but not yet durable; always wins over the on-disk copy
+    private final Map<Long, Order> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Cached> hot;
+    private Segment active;
+
+    private static final class Cached {
+        final long location;
+        final Order order;
+
+        Cached(long location, Order order) {
+            this.location = location;
+            this.order = order;
+        }
+    }
+
+    OrderStore(File dir, GroupCommitWriter writer) throws IOException {
+        this.dir = dir;
+        this.writer = writer;
+        // Sealed segments are mapped as a single buffer, so keep them well under 2 GB
+        this.segmentLimit = Math.min(1024, Long.getLong("cookiehaven.orders.segmentMb", 64)) * 1024 * 1024;
+        this.hotSize = Integer.getInteger("cookiehaven.orders.hotSize", 4096);
+        this.hot = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > hotSize;
+            }
+        };
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        open();
+    }
+
+    boolean isEmpty() {
+        return locations.isEmpty() && pending.isEmpty();
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /** Queues the order (a new one or a new version of an old one); the future completes once it is durable. */
+    CompletableFuture<Void> put(Order order) {
+        byte[] record = encode(order);
+        long id = order.getOrderId();
+        CompletableFuture<Void> done;
+        long location;
+        Long previous;
+        Segment target;
+        synchronized (this) {
+            if (active.failed || (active.reserved > 0 && active.reserved + record.length > segmentLimit)) {
+                roll();
+            }
+            target = active;
+            location = location(target.number, target.reserved);
+            target.reserved += record.length;
+            // pending first: a reader that sees the new location must also see the pending copy
+            pending.put(id, order);
+            previous = locations.put(id, location);
+            done = writer.submit(target, record);
+        }
+        done.whenComplete((v, e) -> {
+            if (e == null) {
+                synchronized (hot) {
+                    hot.put(id, new Cached(location, order));
+                }
+            } else {
+                // Whatever now points into the cut-off part of the segment goes back to the copy before this one
+                locations.computeIfPresent(id, (k, current) -> isReadable(current) ? current
+                        : previous != null && isReadable(previous) ? previous : null);
+                rollIfFailed(target);
+            }
+            pending.remove(id, order);
+        });
+        return done;
+    }
+
+    private synchronized void rollIfFailed(Segment s) {
+        if (active == s && s.failed) roll();
+    }
+
+    /** False for locations past the cut of a segment that failed; those bytes are gone. */
+    private boolean isReadable(long location) {
+        Segment s = segments.get((int) (location >>> 40));
+        return s != null && (!s.failed || (location & ((1L << 40) - 1)) < s.written);
+    }
+
+    Order get(long id) {
+        Long location = locations.get(id);
+        Order p = pending.get(id);
+        if (p != null) return p;
+        if (location == null) return null;
+        synchronized (hot) {
+            Cached c = hot.get(id);
+            if (c != null && c.location == location) return c.order;
+        }
+        Order o = read(location);
+        synchronized (hot) {
+            hot.put(id, new Cached(location, o));
+        }
+        return o;
+    }
+
+    /** Visits the newest copy of every order, decoding as it goes (nothing is kept). */
+    void forEach(Consumer<Order> consumer) {
+        for (Long id : new ArrayList<>(locations.keySet())) {
+            Order o = get0(id);
+            if (o != null) consumer.accept(o);
+        }
+    }
+
+    /** Order ids in ascending order. */
+    long[] sortedIds() {
+        long[] ids = locations.keySet().stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /** Like get, but does not pull cold orders into the hot set; for full scans. */
+    Order get0(long id) {
+        Long location = locations.get(id);
+        Order p = pending.get(id);
+        if (p != null) return p;
+        return location == null ? null : read(location);
+    }
+
+    /** Writes orders straight to disk, bypassing the writer; only for the one-off import at startup. */
+    synchronized void importAll(Collection<? extends Order> orders) throws IOException {
+        for (Order o : orders) {
+            byte[] record = encode(o);
+            if (active.reserved > 0 && active.reserved + record.length > segmentLimit) {
+                active.force();
+                roll();
+            }
+            locations.put(o.getOrderId(), location(active.number, active.reserved));
+            active.reserved += record.length;
+            active.write(record);
+        }
+        active.force();
+    }
+
+    /** Closes the segment files. Only for tools and benchmarks; the server keeps its store open. */
+    synchronized void close() throws IOException {
+        for (Segment s : segments.values()) {
+            s.channel.close();
+            s.index.close();
+        }
+    }
+
+    // --- Segments ---
+
+    private final class Segment implements GroupCommitWriter.Sink {
+        final int number;
+        final FileChannel channel;
+        final FileChannel index;
+        volatile MappedByteBuffer map;
+        long reserved;   // guarded by the store
+        volatile long written;
+        long indexSize;
+        // Lengths as of the last successful force; a failed write cuts back to these
+        long durable;
+        long durableIndex;
+        volatile boolean failed;
+
+        Segment(int number) throws IOException {
+            this.number = number;
+            this.channel = FileChannel.open(datFile(number).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.index = FileChannel.open(idxFile(number).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public synchronized void write(byte[] data) throws IOException {
+            if (failed) throw new IOException("Order segment " + number + " takes no writes after a failed one");
+            try {
+                long offset = written;
+                long pos = offset;
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()) {
+                    pos += channel.write(buf, pos);
+                }
+                written = pos;
+                // The id sits right after the length and format byte
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+                entry.putLong(ByteBuffer.wrap(data, 5, 8).getLong()).putLong(offset).flip();
+                while (entry.hasRemaining()) {
+                    indexSize += index.write(entry, indexSize);
+                }
+            } catch (IOException e) {
+                fail();
+                throw e;
+            }
+        }
+
+        @Override
+        public synchronized void force() throws IOException {
+            if (failed) throw new IOException("Order segment " + number + " takes no writes after a failed one");
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                fail();
+                throw e;
+            }
+            durable = written;
+            durableIndex = indexSize;
+        }
+
+        /** Cuts back to the last forced length; the writer fails every record since then. */
+        private void fail() {
+            failed = true;
+            written = durable;
+            indexSize = durableIndex;
+            try {
+                channel.truncate(durable);
+                index.truncate(durableIndex);
+            } catch (IOException e) {
+                // The index check at startup catches whatever is left over
+                LOG.error("Cannot cut back failed order segment", e, "segment", number);
+            }
+        }
+
+        /** Called once every write to it is done: fsync the index and switch reads to a mapping. */
+        synchronized void seal() throws IOException {
+            channel.force(false);
+            index.force(false);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+        }
+
+        ByteBuffer readRecord(long offset) throws IOException {
+            MappedByteBuffer m = map;
+            if (m != null) {
+                ByteBuffer b = m.duplicate();
+                b.position((int) offset);
+                int len = b.getInt();
+                b.limit((int) offset + 8 + len);
+                return b.slice();
+            }
+            ByteBuffer head = ByteBuffer.allocate(4);
+            readFully(head, offset);
+            int len = head.flip().getInt();
+            ByteBuffer body = ByteBuffer.allocate(len + 4);
+            readFully(body, offset + 4);
+            return body.flip();
+        }
+
+        private void readFully(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, pos);
+                if (n < 0) throw new EOFException("Order record past end of " + datFile(number));
+                pos += n;
+            }
+        }
+    }
+
+    private void roll() {
+        Segment old = active;
+        try {
+            active = new Segment(old.number + 1);
+            segments.put(active.number, active);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start order segment " + (old.number + 1), e);
+        }
+        // Seal once everything queued for the old segment has been written
+        writer.submit(new GroupCommitWriter.Sink() {
+            @Override
+            public void write(byte[] data) {
+            }
+
+            @Override
+            public void force() throws IOException {
+                old.seal();
+            }
+        }, new byte[0]).whenComplete((v, e) -> {
+            if (e != null) LOG.error("Error sealing order segment", e, "segment", old.number);
+        });
+    }
+
+    private void open() throws IOException {
+        List<Integer> numbers = segmentNumbers();
+        if (numbers.isEmpty()) numbers.add(1);
+        int last = numbers.get(numbers.size() - 1);
+        for (int n : numbers) {
+            Segment s = new Segment(n);
+            segments.put(n, s);
+            if (n == last) {
+                recover(s);
+                active = s;
+            } else {
+                s.written = s.channel.size();
+                s.reserved = s.written;
+                s.durable = s.written;
+                s.map = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.written);
+                if (!loadIndex(s)) {
+                    LOG.warn("Rebuilding order index", "segment", n);
+                    recover(s);
+                    s.map = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.written);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a sealed segment's index, or returns false to have it rebuilt. The
+     * index is only fsynced on seal, so every entry has to point at a record
+     * header carrying the same id, and the last record has to end where the
+     * segment does.
+     */
+    private boolean loadIndex(Segment s) throws IOException {
+        long size = s.index.size();
+        if (size % INDEX_ENTRY != 0) return false;
+        ByteBuffer idx = s.index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        ByteBuffer data = s.map;
+        Map<Long, Long> found = new HashMap<>();
+        long end = 0;
+        while (idx.hasRemaining()) {
+            long id = idx.getLong();
+            long offset = idx.getLong();
+            if (offset < 0 || offset + 13 > s.written) return false;
+            int len = data.getInt((int) offset);
+            if (len < 9 || offset + 8 + len > s.written || data.getLong((int) offset + 5) != id) return false;
+            found.put(id, location(s.number, offset));
+            end = Math.max(end, offset + 8 + len);
+        }
+        if (end != s.written) return false;
+        locations.putAll(found);
+        return true;
+    }
+
+    /** Scans a segment, cuts off a torn tail and rewrites its index. */
+    private void recover(Segment s) throws IOException {
+        long size = s.channel.size();
+        ByteBuffer data = size == 0 ? ByteBuffer.allocate(0) : s.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        ByteBuffer idx = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, Math.max(INDEX_ENTRY, size / 8)));
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= 8) {
+            int start = data.position();
+            int len = data.getInt();
+            if (len < 9 || len > data.remaining() - 4) break;
+            ByteBuffer payload = data.slice().limit(len);
+            crc.reset();
+            crc.update(payload);
+            data.position(start + 4 + len);
+            if ((int) crc.getValue() != data.getInt()) break;
+            long id = data.getLong(start + 5);
+            locations.put(id, location(s.number, start));
+            if (idx.remaining() < INDEX_ENTRY) {
+                idx = ByteBuffer.allocate(idx.capacity() * 2).put(idx.flip());
+            }
+            idx.putLong(id).putLong(start);
+            valid = data.position();
+        }
+        if (valid < size) {
+            LOG.warn("Truncating torn bytes", "file", datFile(s.number), "bytes", size - valid);
+            s.channel.truncate(valid);
+        }
+        s.index.truncate(0);
+        idx.flip();
+        long pos = 0;
+        while (idx.hasRemaining()) {
+            pos += s.index.write(idx, pos);
+        }
+        s.indexSize = pos;
+        s.durableIndex = pos;
+        s.written = valid;
+        s.reserved = valid;
+        s.durable = valid;
+    }
+
+    private List<Integer> segmentNumbers() {
+        List<Integer> numbers = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) return numbers;
+        for (String name : names) {
+            if (!name.startsWith("seg-") || !name.endsWith(".dat")) continue;
+            try {
+                numbers.add(Integer.parseInt(name.substring(4, name.length() - 4)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private File datFile(int n) {
+        return new File(dir, "seg-" + n + ".dat");
+    }
+
+    private File idxFile(int n) {
+        return new File(dir, "seg-" + n + ".idx");
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    // --- Record encoding ---
+
+    private Order read(long location) {
+        Segment s = segments.get((int) (location >>> 40));
+        try {
+            ByteBuffer b = s.readRecord(location & ((1L << 40) - 1));
+            return decode(b);
+        } catch (IOException | BufferUnderflowException e) {
+            throw new UncheckedIOException("Cannot read order at " + location,
+                    e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    static byte[] encode(Order o) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0);
+            out.writeByte(FORMAT);
+            out.writeLong(o.getOrderId());
+            out.writeLong(o.getOrderDate().toEpochMilli());
+            out.writeLong(o.getTotalCents());
+            writeString(out, o.getStatus());
+            writeString(out, o.getCustomerName());
+            writeString(out, o.getPhone());
+            writeString(out, o.getAddress());
+            writeString(out, o.getPaymentMethod());
+            writeString(out, o.getCcNumber());
+            writeString(out, o.getCcExpiry());
+            out.writeInt(o.getItems().size());
+            for (CartItem item : o.getItems()) {
+                writeString(out, item.getProductId());
+                writeString(out, item.getProductName());
+                out.writeInt(item.getQuantity());
+                out.writeLong(item.getPriceCents());
+            }
+            out.writeInt(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        int len = record.length - 8;
+        ByteBuffer b = ByteBuffer.wrap(record);
+        b.putInt(0, len);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, len);
+        b.putInt(4 + len, (int) crc.getValue());
+        return record;
+    }
+
+    /** Decodes the payload and checksum that follow a record's length field. */
+    private static Order decode(ByteBuffer b) throws IOException {
+        int len = b.remaining() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(b.duplicate().limit(b.position() + len));
+        if ((int) crc.getValue() != b.getInt(b.position() + len)) {
+            throw new IOException("Order record checksum mismatch");
+        }
+        if (b.get() != FORMAT) throw new IOException("Unknown order record format");
+        long id = b.getLong();
+        Instant date = Instant.ofEpochMilli(b.getLong());
+        long total = b.getLong();
+        String status = readString(b);
+        String name = readString(b);
+        String phone = readString(b);
+        String address = readString(b);
+        String payment = readString(b);
+        String cc = readString(b);
+        String expiry = readString(b);
+        int count = b.getInt();
+        List<CartItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String pid = readString(b);
+            String pname = readString(b);
+            int qty = b.getInt();
+            items.add(new CartItem(pid, pname, b.getLong(), qty));
+        }
+        return new OrderWithStatus(id, name, phone, address, payment, cc, expiry, items, total, status, date);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer b) {
+        int len = b.getInt();
+        if (len < 0) return null;
+        if (b.hasArray()) {
+            String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+            b.position(b.position() + len);
+            return s;
+        }
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
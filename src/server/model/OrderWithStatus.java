@@ -1,17 +1,19 @@
 package server.model;
 
-import java.util.Date;
+import java.time.Instant;
 import java.util.List;
 
 public class OrderWithStatus extends Order {
+    private static final long serialVersionUID = 1L;
+
     private final String status;
-    private final Date orderDate;
+    private final Instant orderDate;
 
     public OrderWithStatus(long orderId, String customerName, String phone, String address,
                            String paymentMethod, String ccNumber, String ccExpiry,
-                           List<CartItem> items, double total, String status, Date orderDate) {
+                           List<CartItem> items, long totalCents, String status, Instant orderDate) {
         // Calls the constructor of the Order class
-        super(orderId, customerName, phone, address, paymentMethod, ccNumber, ccExpiry, items, total);
+        super(orderId, customerName, phone, address, paymentMethod, ccNumber, ccExpiry, items, totalCents);
         this.status = status;
         this.orderDate = orderDate;
     }
@@ -20,5 +22,5 @@ public class OrderWithStatus extends Order {
     public String getStatus() { return status; }
 
     @Override
-    public Date getOrderDate() { return orderDate; }
+    public Instant getOrderDate() { return orderDate; }
 }
\ No newline at end of file
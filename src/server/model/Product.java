@@ -1,21 +1,33 @@
 package server.model;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Product implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String id;
     private String name;
-    private double price;
-    private int stock;
+    private long priceCents;
+    // High 32 bits: change version, low 32 bits: units on hand. Updated by CAS only.
+    private final AtomicLong stockState;
+    // Same layout, but only counting committed checkouts: what the journal and products.txt hold.
+    // stockState is this minus the reservations still in flight.
+    private final AtomicLong committedState;
     private String description;
     private String ingredients;
     private String allergens;
 
-    public Product(String id, String name, double price, int stock, String description, String ingredients, String allergens) {
+    public Product(String id, String name, long priceCents, int stock, String description, String ingredients, String allergens) {
+        this(id, name, priceCents, stock, 0, description, ingredients, allergens);
+    }
+
+    Product(String id, String name, long priceCents, int stock, int stockVersion, String description, String ingredients, String allergens) {
         this.id = id;
         this.name = name;
-        this.price = price;
-        this.stock = stock;
+        this.priceCents = priceCents;
+        this.stockState = new AtomicLong(pack(stockVersion, stock));
+        this.committedState = new AtomicLong(pack(stockVersion, stock));
         this.description = description;
         this.ingredients = ingredients;
         this.allergens = allergens;
@@ -24,9 +36,89 @@ public class Product implements Serializable {
     // Getters
     public String getId() { return id; }
     public String getName() { return name; }
-    public double getPrice() { return price; }
-    public int getStock() { return stock; }
+    /** Price in sen, see {@link Money}. */
+    public long getPriceCents() { return priceCents; }
+    public int getStock() { return stockOf(stockState.get()); }
     public String getDescription() { return description; }
     public String getIngredients() { return ingredients; }
     public String getAllergens() { return allergens; }
-}
\ No newline at end of file
+
+    // --- Lock-free stock updates, used by ProductDatabase ---
+
+    long stockState() {
+        return stockState.get();
+    }
+
+    long committedState() {
+        return committedState.get();
+    }
+
+    /** Takes qty units if that many are on hand. Returns the new state, or -1 if it would oversell or qty isn't positive. */
+    long tryTake(int qty) {
+        // A negative take would add stock
+        if (qty <= 0) return -1;
+        while (true) {
+            long cur = stockState.get();
+            int stock = stockOf(cur);
+            if (stock < qty) return -1;
+            long next = pack(versionOf(cur) + 1, stock - qty);
+            if (stockState.compareAndSet(cur, next)) return next;
+        }
+    }
+
+    /** Takes up to qty live units, never going below zero. Returns how many it took. */
+    int takeAtMost(int qty) {
+        if (qty <= 0) return 0;
+        while (true) {
+            long cur = stockState.get();
+            int taken = Math.min(qty, Math.max(0, stockOf(cur)));
+            long next = pack(versionOf(cur) + 1, stockOf(cur) - taken);
+            if (stockState.compareAndSet(cur, next)) return taken;
+        }
+    }
+
+    /** Makes qty units already taken with tryTake or takeAtMost permanent. Returns the new committed state. */
+    long commit(int qty) {
+        return addCommitted(-qty);
+    }
+
+    /** Reverses {@link #commit}; the caller gives the live units back separately. Returns the new committed state. */
+    long uncommit(int qty) {
+        return addCommitted(qty);
+    }
+
+    private long addCommitted(int delta) {
+        while (true) {
+            long cur = committedState.get();
+            long next = pack(versionOf(cur) + 1, stockOf(cur) + delta);
+            if (committedState.compareAndSet(cur, next)) return next;
+        }
+    }
+
+    long give(int qty) {
+        while (true) {
+            long cur = stockState.get();
+            long next = pack(versionOf(cur) + 1, stockOf(cur) + qty);
+            if (stockState.compareAndSet(cur, next)) return next;
+        }
+    }
+
+    /** Applies a journaled state if it is newer than what we hold. Startup only, so nothing is reserved yet. */
+    void applyState(int version, int stock) {
+        if (versionOf(committedState.get()) >= version) return;
+        committedState.set(pack(version, stock));
+        stockState.set(pack(version, stock));
+    }
+
+    static long pack(int version, int stock) {
+        return ((long) version << 32) | (stock & 0xFFFFFFFFL);
+    }
+
+    static int versionOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    static int stockOf(long state) {
+        return (int) state;
+    }
+}
@@ -1,39 +1,174 @@
 package server.model;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Product catalog plus live inventory. Stock lives in each {@link Product} as a
+ * CAS-updated (version, units) pair, so checkouts on different SKUs never
+ * contend and checkouts on the same SKU never lose a decrement. The catalog map
+ * itself is copy-on-write; it only changes when an admin edits products.
+ */
 public class ProductDatabase {
-    private static final Map<String, Product> products = new LinkedHashMap<>();
+    private static volatile Map<String, Product> products = Collections.emptyMap();
+    private static final Log LOG = Log.get(ProductDatabase.class);
     private static final String FILE_PATH = "products.txt";
+    private static final String JOURNAL_NAME = "products.journal";
+    private static final long COMPACT_INTERVAL_SEC = 60;
+    private static final Object CATALOG_LOCK = new Object();
+    private static final Journal JOURNAL;
+    private static volatile boolean journalHasBacklog;
+    private static final AtomicLong CATALOG_VERSION = new AtomicLong();
+    private static final AtomicReference<CatalogSnapshot> CATALOG = new AtomicReference<>();
 
     static {
         loadFromFile();
+        JOURNAL = openJournal();
+        products.values().forEach(DashboardMetrics::stockChanged);
+        publishCatalog();
+        startCompactor();
     }
 
-    public static void addProduct(Product p) {
-        products.put(p.getId(), p);
-        saveToFile(); // Saves immediately to disk
+    public static CompletableFuture<Void> addProduct(Product p) {
+        synchronized (CATALOG_LOCK) {
+            Product old = products.get(p.getId());
+            Product added = p;
+            if (old != null) {
+                // Keep stock versions increasing so journal replay stays ordered
+                added = new Product(p.getId(), p.getName(), p.getPriceCents(), p.getStock(),
+                        Product.versionOf(old.committedState()) + 1,
+                        p.getDescription(), p.getIngredients(), p.getAllergens());
+            }
+            Map<String, Product> next = new LinkedHashMap<>(products);
+            next.put(added.getId(), added);
+            products = Collections.unmodifiableMap(next);
+            DashboardMetrics.stockChanged(added);
+            publishCatalog();
+            long state = added.committedState();
+            return undoIfLost(JOURNAL.append("P", added.getId(), added.getName(), Money.format(added.getPriceCents()),
+                    String.valueOf(Product.stockOf(state)), String.valueOf(Product.versionOf(state)),
+                    added.getDescription(), added.getIngredients(), added.getAllergens()),
+                    added.getId(), added, old);
+        }
     }
 
-    public static void deleteProduct(String id) {
-        products.remove(id);
-        saveToFile();
+    public static CompletableFuture<Void> deleteProduct(String id) {
+        synchronized (CATALOG_LOCK) {
+            Map<String, Product> next = new LinkedHashMap<>(products);
+            Product old = next.remove(id);
+            products = Collections.unmodifiableMap(next);
+            DashboardMetrics.productRemoved(id);
+            publishCatalog();
+            return undoIfLost(JOURNAL.append("D", id), id, null, old);
+        }
     }
 
-    public static void reduceStock(String id, int qty) {
+    /**
+     * If the journal write for a catalog edit fails, puts the previous entry
+     * back, so memory doesn't keep a change that the next restart would forget.
+     * A later edit of the same product wins, and is left alone. The returned
+     * future completes after the undo.
+     */
+    private static CompletableFuture<Void> undoIfLost(CompletableFuture<Void> write, String id,
+                                                      Product applied, Product previous) {
+        return write.whenComplete((v, e) -> {
+            if (e == null) return;
+            synchronized (CATALOG_LOCK) {
+                if (products.get(id) != applied) return;
+                Map<String, Product> next = new LinkedHashMap<>(products);
+                if (previous != null) {
+                    next.put(id, previous);
+                    DashboardMetrics.stockChanged(previous);
+                } else {
+                    next.remove(id);
+                    DashboardMetrics.productRemoved(id);
+                }
+                products = Collections.unmodifiableMap(next);
+                publishCatalog();
+            }
+            LOG.error("Catalog change not saved, undone", e, "productId", id);
+        });
+    }
+
+    /** Unconditional decrement that stops at zero. Checkout uses reserve/commit instead. */
+    public static CompletableFuture<Void> reduceStock(String id, int qty) {
         Product p = products.get(id);
-        if (p != null) {
-            int currentStock = p.getStock();
-            int newStock = Math.max(0, currentStock - qty);
-
-            // Re-create the product with new stock value
-            Product updated = new Product(p.getId(), p.getName(), p.getPrice(),
-                    newStock, p.getDescription(),
-                    p.getIngredients(), p.getAllergens());
-            products.put(id, updated);
-            saveToFile();
+        if (p == null) return CompletableFuture.completedFuture(null);
+        int taken = p.takeAtMost(qty);
+        long state = p.commit(taken);
+        DashboardMetrics.stockChanged(p);
+        publishCatalog();
+        return journalStock(p, state).whenComplete((v, e) -> {
+            if (e == null) return;
+            // Not durable, so give the units back rather than lose them at the next restart
+            p.give(taken);
+            p.uncommit(taken);
+            DashboardMetrics.stockChanged(p);
+            publishCatalog();
+            LOG.error("Stock change not saved, undone", e, "productId", id);
+        });
+    }
+
+    /**
+     * Holds stock for every item, or nothing at all. Fails without side effects
+     * if any product is unknown, would be oversold, or has a quantity below one.
+     */
+    public static Reservation reserve(List<CartItem> items) {
+        Map<Product, Integer> held = new LinkedHashMap<>();
+        for (CartItem item : items) {
+            Product p = products.get(item.getProductId());
+            if (p == null || p.tryTake(item.getQuantity()) < 0) {
+                for (Map.Entry<Product, Integer> e : held.entrySet()) {
+                    e.getKey().give(e.getValue());
+                }
+                return new Reservation(Collections.emptyMap(), item.getProductId());
+            }
+            held.merge(p, item.getQuantity(), Integer::sum);
         }
+        return new Reservation(held, null);
+    }
+
+    /**
+     * Makes a reservation permanent by journaling the new committed stock
+     * levels. Those never include other checkouts' reservations, so nothing
+     * that is still in flight becomes durable.
+     */
+    public static CompletableFuture<Void> commit(Reservation r) {
+        if (!r.markCommitted()) return CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (Map.Entry<Product, Integer> e : r.held.entrySet()) {
+            writes.add(journalStock(e.getKey(), e.getKey().commit(e.getValue())));
+            DashboardMetrics.stockChanged(e.getKey());
+        }
+        publishCatalog();
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Returns reserved stock, e.g. when the order could not be saved. If the
+     * reservation was already committed, the restored levels are journaled
+     * the same way commit journals them.
+     */
+    public static CompletableFuture<Void> release(Reservation r) {
+        int was = r.markReleased();
+        if (was == Reservation.RELEASED) return CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (Map.Entry<Product, Integer> e : r.held.entrySet()) {
+            Product p = e.getKey();
+            p.give(e.getValue());
+            if (was == Reservation.COMMITTED) writes.add(journalStock(p, p.uncommit(e.getValue())));
+            DashboardMetrics.stockChanged(p);
+        }
+        publishCatalog();
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
     }
 
     public static List<Product> getAllProducts() {
@@ -44,29 +179,133 @@ public class ProductDatabase {
         return products.get(id);
     }
 
-    private static void saveToFile() {
-        try (PrintWriter out = new PrintWriter(new FileWriter(FILE_PATH))) {
-            for (Product p : products.values()) {
-                // Save ALL 7 fields separated by |
-                out.println(p.getId() + "|" + p.getName() + "|" + p.getPrice() + "|" +
-                        p.getStock() + "|" + p.getDescription() + "|" +
-                        p.getIngredients() + "|" + p.getAllergens());
+    /** Current pre-encoded catalog JSON; rebuilt on every mutation, never on read. */
+    public static CatalogSnapshot getCatalogSnapshot() {
+        return CATALOG.get();
+    }
+
+    private static void publishCatalog() {
+        long version = CATALOG_VERSION.incrementAndGet();
+        CatalogSnapshot next = new CatalogSnapshot(version, products.values());
+        // A slower concurrent rebuild must not replace a newer snapshot
+        CATALOG.accumulateAndGet(next, (cur, n) -> cur == null || n.getVersion() > cur.getVersion() ? n : cur);
+    }
+
+    private static CompletableFuture<Void> journalStock(Product p, long state) {
+        return JOURNAL.append("K", p.getId(),
+                String.valueOf(Product.versionOf(state)), String.valueOf(Product.stockOf(state)));
+    }
+
+    // Only called during startup, before the catalog is published to other threads
+    private static void applyRecord(String[] f) {
+        if ("K".equals(f[0])) {
+            Product p = products.get(f[1]);
+            if (p != null) p.applyState(Integer.parseInt(f[2]), Integer.parseInt(f[3]));
+            return;
+        }
+        Map<String, Product> map = new LinkedHashMap<>(products);
+        switch (f[0]) {
+            case "P": {
+                Product p = new Product(f[1], f[2], Money.parse(f[3]), Integer.parseInt(f[4]),
+                        Integer.parseInt(f[5]), f[6], f[7], f[8]);
+                Product old = map.get(f[1]);
+                if (old != null) {
+                    long state = old.committedState();
+                    p.applyState(Product.versionOf(state), Product.stockOf(state));
+                }
+                map.put(f[1], p);
+                break;
             }
-        } catch (IOException e) { e.printStackTrace(); }
+            case "D":
+                map.remove(f[1]);
+                break;
+        }
+        products = Collections.unmodifiableMap(map);
+    }
+
+    private static Journal openJournal() {
+        try {
+            Journal journal = new Journal(new File("."), JOURNAL_NAME, GroupCommitWriter.shared());
+            journalHasBacklog = journal.replay(ProductDatabase::applyRecord) > 0;
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open product journal", e);
+        }
+    }
+
+    private static void startCompactor() {
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "product-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(ProductDatabase::compact,
+                COMPACT_INTERVAL_SEC, COMPACT_INTERVAL_SEC, TimeUnit.SECONDS);
+    }
+
+    /** Folds the stock/catalog journal back into products.txt. */
+    static void compact() {
+        if (JOURNAL.getRecordCount() == 0 && !journalHasBacklog) return;
+
+        int rolled;
+        List<Product> snapshot;
+        try {
+            synchronized (CATALOG_LOCK) {
+                rolled = JOURNAL.roll();
+                snapshot = new ArrayList<>(products.values());
+            }
+        } catch (IOException e) {
+            LOG.error("Error rolling product journal", e);
+            return;
+        }
+
+        File tmp = new File(FILE_PATH + ".tmp");
+        long start = System.nanoTime();
+        try {
+            saveToFile(snapshot, tmp);
+            Files.move(tmp.toPath(), new File(FILE_PATH).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            JOURNAL.dropUpTo(rolled);
+            journalHasBacklog = false;
+            Metrics.stage("product_snapshot").recordSince(start);
+        } catch (IOException e) {
+            journalHasBacklog = true;
+            LOG.error("Error writing product snapshot, keeping the journal", e, "file", FILE_PATH);
+        }
+    }
+
+    private static void saveToFile(List<Product> snapshot, File target) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(target);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(fos))) {
+            for (Product p : snapshot) {
+                // Save ALL 7 fields separated by |, plus the stock version journal replay compares against
+                long state = p.committedState();
+                out.println(p.getId() + "|" + p.getName() + "|" + Money.format(p.getPriceCents()) + "|" +
+                        Product.stockOf(state) + "|" + p.getDescription() + "|" +
+                        p.getIngredients() + "|" + p.getAllergens() + "|" + Product.versionOf(state));
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
     }
 
     private static void loadFromFile() {
         File file = new File(FILE_PATH);
         if (!file.exists()) return;
+        Map<String, Product> map = new LinkedHashMap<>();
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = br.readLine()) != null) {
                 String[] f = line.split("\\|");
                 if (f.length >= 7) { // Corrected check
-                    products.put(f[0], new Product(f[0], f[1], Double.parseDouble(f[2]),
-                            Integer.parseInt(f[3]), f[4], f[5], f[6]));
+                    int version = f.length >= 8 ? Integer.parseInt(f[7]) : 0;
+                    map.put(f[0], new Product(f[0], f[1], Money.parse(f[2]),
+                            Integer.parseInt(f[3]), version, f[4], f[5], f[6]));
                 }
             }
-        } catch (IOException e) { e.printStackTrace(); }
+        } catch (IOException e) {
+            LOG.error("Error loading products", e, "file", FILE_PATH);
+        }
+        products = Collections.unmodifiableMap(map);
     }
-}
\ No newline at end of file
+}
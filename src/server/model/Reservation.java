@@ -0,0 +1,48 @@
+package server.model;
+
+import java.util.*;
+
+/**
+ * Stock held for one checkout. Created by {@link ProductDatabase#reserve(List)};
+ * must end in either {@link ProductDatabase#commit(Reservation)} or
+ * {@link ProductDatabase#release(Reservation)}. Releasing after a commit puts
+ * the committed stock back too, e.g. when the order itself failed to save.
+ */
+public class Reservation {
+    static final int HELD = 0;
+    static final int COMMITTED = 1;
+    static final int RELEASED = 2;
+
+    final Map<Product, Integer> held;
+    private final String shortProductId;
+    private int state;
+
+    Reservation(Map<Product, Integer> held, String shortProductId) {
+        this.held = held;
+        this.shortProductId = shortProductId;
+        this.state = shortProductId == null ? HELD : RELEASED;
+    }
+
+    public boolean isOk() {
+        return shortProductId == null;
+    }
+
+    /** The product that could not be reserved, or null if the reservation succeeded. */
+    public String getShortProductId() {
+        return shortProductId;
+    }
+
+    /** True if this call moved the reservation from held to committed. */
+    synchronized boolean markCommitted() {
+        if (state != HELD) return false;
+        state = COMMITTED;
+        return true;
+    }
+
+    /** Releases it and returns the state it was in; RELEASED means there was nothing left to give back. */
+    synchronized int markReleased() {
+        int was = state;
+        state = RELEASED;
+        return was;
+    }
+}
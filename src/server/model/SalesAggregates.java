@@ -0,0 +1,63 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running sales totals for the reports page, kept up to date by OrderDatabase
+ * as orders come in and change status. Reading them costs O(buckets), not a
+ * scan over every order and item. Money is summed in sen, so totals are exact.
+ */
+public class SalesAggregates {
+    // Keyed by Dates.monthKey, which sorts in time order
+    private static final Map<Integer, LongAdder> monthRevenue = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> productUnits = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> productRevenue = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> statusCounts = new ConcurrentHashMap<>();
+
+    static void orderAdded(Order o) {
+        int month = Dates.monthKey(o.getOrderDate().toEpochMilli());
+        monthRevenue.computeIfAbsent(month, k -> new LongAdder()).add(o.getTotalCents());
+        for (CartItem item : o.getItems()) {
+            productUnits.computeIfAbsent(item.getProductName(), k -> new LongAdder()).add(item.getQuantity());
+            productRevenue.computeIfAbsent(item.getProductName(), k -> new LongAdder()).add(item.getSubtotalCents());
+        }
+        statusCounts.computeIfAbsent(o.getStatus(), k -> new LongAdder()).increment();
+    }
+
+    static void statusChanged(String oldStatus, String newStatus) {
+        if (Objects.equals(oldStatus, newStatus)) return;
+        statusCounts.computeIfAbsent(oldStatus, k -> new LongAdder()).decrement();
+        statusCounts.computeIfAbsent(newStatus, k -> new LongAdder()).increment();
+    }
+
+    /** Revenue in sen per month, oldest first, keyed by labels like "Dec 2025". */
+    public static Map<String, Long> getMonthlySales() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        new TreeMap<>(monthRevenue).forEach((month, sum) -> out.put(Dates.MONTH_LABEL.format(Dates.yearMonth(month)), sum.sum()));
+        return out;
+    }
+
+    public static Map<String, Long> getProductUnits() {
+        Map<String, Long> out = new TreeMap<>();
+        productUnits.forEach((name, units) -> out.put(name, units.sum()));
+        return out;
+    }
+
+    /** Revenue in sen per product name. */
+    public static Map<String, Long> getProductRevenue() {
+        Map<String, Long> out = new TreeMap<>();
+        productRevenue.forEach((name, sum) -> out.put(name, sum.sum()));
+        return out;
+    }
+
+    public static Map<String, Long> getStatusCounts() {
+        Map<String, Long> out = new TreeMap<>();
+        statusCounts.forEach((status, count) -> {
+            long n = count.sum();
+            if (n != 0) out.put(status, n);
+        });
+        return out;
+    }
+}
@@ -3,30 +3,66 @@ package server.model;
 import java.io.Serializable;
 import java.util.*;
 
+/**
+ * Cart lines keyed by product ID (in the order they were added), with the item
+ * count and total kept up to date on every change so reading them is O(1).
+ * All methods lock the cart, since one session can have several requests in flight.
+ */
 public class ShoppingCart implements Serializable {
-    private final List<CartItem> items = new ArrayList<>();
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, CartItem> items = new LinkedHashMap<>();
+    private int itemCount;
+    private long totalCents;
+    // Bumped on every change so session snapshots can tell which carts to rewrite
+    private volatile int version;
 
     // FIX: Updated parameters to include 'name'
-    public void addItem(String id, String name, double price, int qty) {
-        for (CartItem item : items) {
-            if (item.getProductId().equals(id)) {
-                item.setQuantity(item.getQuantity() + qty);
-                return;
-            }
+    public synchronized void addItem(String id, String name, long priceCents, int qty) {
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive: " + qty);
+        version++;
+        CartItem item = items.get(id);
+        if (item != null) {
+            item.setQuantity(item.getQuantity() + qty);
+            priceCents = item.getPriceCents();
+        } else {
+            items.put(id, new CartItem(id, name, priceCents, qty));
+        }
+        itemCount += qty;
+        totalCents += Money.times(priceCents, qty);
+    }
+
+    public synchronized void removeItem(String id) {
+        CartItem item = items.remove(id);
+        if (item == null) return;
+        version++;
+        itemCount -= item.getQuantity();
+        totalCents -= item.getSubtotalCents();
+    }
+
+    /** A detached copy of the lines, safe to read while the cart keeps changing. */
+    public synchronized List<CartItem> getItems() {
+        List<CartItem> copy = new ArrayList<>(items.size());
+        for (CartItem item : items.values()) {
+            copy.add(new CartItem(item.getProductId(), item.getProductName(), item.getPriceCents(), item.getQuantity()));
         }
-        // This now matches the (String, String, double, int) constructor
-        items.add(new CartItem(id, name, price, qty));
+        return copy;
+    }
+
+    /** Total quantity across all lines. */
+    public synchronized int getItemCount() {
+        return itemCount;
     }
 
-    public void removeItem(String id) {
-        items.removeIf(item -> item.getProductId().equals(id));
+    public synchronized boolean isEmpty() {
+        return items.isEmpty();
     }
 
-    public List<CartItem> getItems() {
-        return items;
+    public int getVersion() {
+        return version;
     }
 
-    public double calculateTotal() {
-        return items.stream().mapToDouble(CartItem::getSubtotal).sum();
+    public synchronized long getTotalCents() {
+        return totalCents;
     }
-}
\ No newline at end of file
+}
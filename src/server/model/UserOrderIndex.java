@@ -0,0 +1,117 @@
+package server.model;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-customer order history. orderdata.txt is read once at startup and then
+ * only appended to; lookups go to the in-memory list for that username, so a
+ * customer's history costs O(their orders) no matter how big the shop gets.
+ */
+public class UserOrderIndex {
+    private static final Log LOG = Log.get(UserOrderIndex.class);
+    private static final String ORDER_FILE = "orderdata.txt";
+    private static final Map<String, List<Entry>> BY_USER = new ConcurrentHashMap<>();
+    private static final GroupCommitWriter.Sink FILE = openFile();
+
+    public static class Entry {
+        private final String id;
+        private final String date;
+        private final String total;
+        private final String status;
+
+        public Entry(String id, String date, String total, String status) {
+            this.id = id;
+            this.date = date;
+            this.total = total;
+            this.status = status;
+        }
+
+        public String getId() { return id; }
+        public String getDate() { return date; }
+        public String getTotal() { return total; }
+        public String getStatus() { return status; }
+    }
+
+    /** One page of a customer's history, newest first. */
+    public static class Page {
+        private final List<Entry> entries;
+        private final Integer nextCursor;
+
+        Page(List<Entry> entries, Integer nextCursor) {
+            this.entries = entries;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Entry> getEntries() { return entries; }
+        /** Pass back as cursor to get the next (older) page; null when there is none. */
+        public Integer getNextCursor() { return nextCursor; }
+    }
+
+    static {
+        load();
+    }
+
+    /**
+     * Appends the order to orderdata.txt through the group commit writer and
+     * indexes it once that write is durable, so a failed write never shows up
+     * in the history. Writes complete in the order they were submitted, so the
+     * list keeps the file's order.
+     */
+    public static CompletableFuture<Void> add(String username, Entry e) {
+        List<Entry> list = BY_USER.computeIfAbsent(username, k -> new ArrayList<>());
+        CompletableFuture<Void> write = GroupCommitWriter.shared().submit(FILE,
+                username + "," + e.id + "," + e.date + "," + e.total + "," + e.status + "\n");
+        return write.thenRun(() -> {
+            synchronized (list) {
+                list.add(e);
+            }
+        });
+    }
+
+    /**
+     * Entries are numbered by position in the user's append-only list, so a
+     * cursor stays valid while new orders arrive.
+     */
+    public static Page find(String username, int limit, Integer cursor) {
+        List<Entry> list = BY_USER.get(username);
+        if (list == null) return new Page(Collections.emptyList(), null);
+        synchronized (list) {
+            int end = cursor == null ? list.size() : Math.max(0, Math.min(cursor, list.size()));
+            int start = Math.max(0, end - limit);
+            List<Entry> page = new ArrayList<>(end - start);
+            for (int i = end - 1; i >= start; i--) {
+                page.add(list.get(i));
+            }
+            return new Page(page, start > 0 ? start : null);
+        }
+    }
+
+    private static void load() {
+        File file = new File(ORDER_FILE);
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] p = line.split(",");
+                if (p.length >= 5) {
+                    BY_USER.computeIfAbsent(p[0], k -> new ArrayList<>()).add(new Entry(p[1], p[2], p[3], p[4]));
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot read order history", e, "file", ORDER_FILE);
+        }
+    }
+
+    private static GroupCommitWriter.Sink openFile() {
+        try {
+            return new GroupCommitWriter.FileSink(ORDER_FILE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open " + ORDER_FILE, e);
+        }
+    }
+}